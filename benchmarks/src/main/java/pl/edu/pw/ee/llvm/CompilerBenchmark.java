@@ -0,0 +1,127 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pl.edu.pw.ee.HolyJavaLexer;
+import pl.edu.pw.ee.HolyJavaParser;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Wynik "lines" to linie źródła na sekundę, alokację na linię daje gc.alloc.rate.norm z -prof gc podzielone przez linesPerOperation
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerBenchmark {
+
+    @Param({"statements", "nesting", "functions", "classes", "arrays"})
+    public String shape;
+
+    @Param({"100", "1000"})
+    public int size;
+
+    private String source;
+    private long lines;
+    private List<Token> tokens;
+    private HolyJavaParser.ProgrammeContext tree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        source = SyntheticPrograms.generate(shape, size);
+        lines = SyntheticPrograms.countLines(source);
+        tokens = lexTokens();
+        tree = LLVMCompiler.parseTwoStage(new HolyJavaParser(new CommonTokenStream(new ListTokenSource(tokens))));
+        System.out.println("\nlinesPerOperation: " + lines);
+    }
+
+    @Benchmark
+    public List<Token> lex(LineCounter counter) {
+        counter.lines += lines;
+        return lexTokens();
+    }
+
+    @Benchmark
+    public HolyJavaParser.ProgrammeContext parse(LineCounter counter) {
+        counter.lines += lines;
+        final var parser = new HolyJavaParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        return LLVMCompiler.parseTwoStage(parser);
+    }
+
+    @Benchmark
+    public void walk(LineCounter counter, Blackhole blackhole) {
+        counter.lines += lines;
+        walkTree(blackhole::consume);
+    }
+
+    @Benchmark
+    public void emit(LineCounter counter) throws Exception {
+        counter.lines += lines;
+
+        try (final var sink = LLVMSink.toStream(OutputStream.nullOutputStream())) {
+            walkTree(sink);
+        }
+    }
+
+    @Benchmark
+    public void compile(LineCounter counter) throws Exception {
+        counter.lines += lines;
+
+        try (final var sink = LLVMSink.toStream(OutputStream.nullOutputStream())) {
+            new LLVMCompiler().compileSource(source, sink);
+        }
+    }
+
+    private List<Token> lexTokens() {
+        final var lexer = new HolyJavaLexer(CharStreams.fromString(source));
+        final List<Token> result = new ArrayList<>();
+        Token token;
+
+        do {
+            token = lexer.nextToken();
+            result.add(token);
+        } while (token.getType() != Token.EOF);
+
+        return result;
+    }
+
+    private void walkTree(LLVMSink sink) {
+        final var generator = new LLVMGenerator(sink);
+        new LLVMTreeWalker().walk(new LLVMActions(generator, null, true), tree);
+        generator.finish();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class LineCounter {
+
+        public long lines;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            lines = 0;
+        }
+
+    }
+
+}
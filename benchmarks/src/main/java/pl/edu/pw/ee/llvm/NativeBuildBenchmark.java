@@ -0,0 +1,75 @@
+package pl.edu.pw.ee.llvm;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Czas od źródła do pliku wykonywalnego lub obiektowego; wymaga opt, clang i lld w PATH
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NativeBuildBenchmark {
+
+    @Param({"statements", "functions", "arrays"})
+    public String shape;
+
+    @Param({"1000"})
+    public int size;
+
+    @Param({"O0", "O1", "O2", "O3", "Os"})
+    public String level;
+
+    @Param({"false", "true"})
+    public boolean lto;
+
+    @Param({"EXECUTABLE", "OBJECT"})
+    public String output;
+
+    private Path directory;
+    private Path source;
+    private Path target;
+    private LLVMCompiler compiler;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("holy_java-native");
+        source = Files.writeString(directory.resolve("program.hj"), SyntheticPrograms.generate(shape, size));
+        final var options = new CompilerOptions();
+        options.nativeOutput = NativeOutput.valueOf(output);
+        options.optimizationLevel = OptimizationLevel.valueOf(level);
+        options.linkTimeOptimization = lto;
+        compiler = new LLVMCompiler(options);
+        target = LLVMBatchCompiler.outputPath(source, compiler.outputExtension());
+    }
+
+    @Benchmark
+    public void build() throws IOException {
+        compiler.compile(source, target);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(target);
+        Files.deleteIfExists(source);
+        Files.deleteIfExists(directory);
+    }
+
+}
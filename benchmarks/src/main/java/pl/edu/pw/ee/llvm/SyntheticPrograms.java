@@ -0,0 +1,108 @@
+package pl.edu.pw.ee.llvm;
+
+class SyntheticPrograms {
+
+    private SyntheticPrograms() {
+    }
+
+    static String generate(String shape, int size) {
+        final var program = new StringBuilder();
+
+        switch (shape) {
+            case "statements" -> statements(program, size);
+            case "nesting" -> nesting(program, size);
+            case "functions" -> functions(program, size);
+            case "classes" -> classes(program, size);
+            case "arrays" -> arrays(program, size);
+            default -> throw new IllegalArgumentException("unknown program shape " + shape);
+        }
+
+        return program.toString();
+    }
+
+    static long countLines(String program) {
+        return program.chars().filter(character -> character == '\n').count();
+    }
+
+    private static void statements(StringBuilder program, int size) {
+        program.append("v = 1;\n");
+
+        for (var i = 0; i < size; i++) {
+            final var previous = i == 0 ? "v" : name("v", i - 1);
+            program.append(name("v", i)).append(" = ").append(previous).append(" * 2 + ").append(i).append(";\n");
+
+            if (i % 10 == 0) {
+                program.append("print ").append(name("v", i)).append(";\n");
+            }
+        }
+    }
+
+    private static void nesting(StringBuilder program, int size) {
+        program.append("c = false;\n");
+
+        for (var i = 0; i < size; i++) {
+            program.append(i % 2 == 0 ? "while(c) {\n" : "if(c) {\n");
+        }
+
+        program.append("x = 1;\n");
+
+        for (var i = 0; i < size; i++) {
+            program.append("};\n");
+        }
+    }
+
+    private static void functions(StringBuilder program, int size) {
+        for (var i = 0; i < size; i++) {
+            final var function = name("f", i);
+            program.append("fun long ").append(function).append("(long a, long b) {\n")
+                    .append("    c = a * b;\n")
+                    .append("    return c + a;\n")
+                    .append("}\n")
+                    .append(name("r", i)).append(" = ").append(function).append("(1, 2);\n");
+        }
+    }
+
+    private static void classes(StringBuilder program, int size) {
+        for (var i = 0; i < size; i++) {
+            final var clazz = name("C", i);
+            final var object = name("o", i);
+            program.append("class ").append(clazz).append(" {\n")
+                    .append("    double x;\n")
+                    .append("    double y;\n")
+                    .append("    fun void move(double d) {\n")
+                    .append("        this.x = this.x + d;\n")
+                    .append("        this.y = this.y + d;\n")
+                    .append("    }\n")
+                    .append("}\n")
+                    .append(object).append(" = new ").append(clazz).append(";\n")
+                    .append(object).append(".x = 1.0;\n")
+                    .append(object).append(".y = 2.0;\n")
+                    .append(object).append(".move(0.5);\n");
+        }
+    }
+
+    private static void arrays(StringBuilder program, int size) {
+        program.append("a = [");
+
+        for (var i = 0; i < size; i++) {
+            program.append(i == 0 ? "" : ",").append(i % 16 == 0 ? "\n" : " ").append(i);
+        }
+
+        program.append("\n];\n")
+                .append("b = a[0];\n")
+                .append("print b;\n");
+    }
+
+    // Identyfikatory w HolyJava składają się wyłącznie z liter
+    private static String name(String prefix, int number) {
+        final var name = new StringBuilder(prefix);
+
+        do {
+            name.append((char) ('a' + number % 26));
+            number /= 26;
+        } while (number > 0);
+
+        return name.toString();
+    }
+
+}
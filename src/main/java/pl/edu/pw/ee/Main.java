@@ -1,13 +1,123 @@
 package pl.edu.pw.ee;
 
+import pl.edu.pw.ee.llvm.CompilerOptions;
+import pl.edu.pw.ee.llvm.LLVMBatchCompiler;
+import pl.edu.pw.ee.llvm.LLVMCompileClient;
+import pl.edu.pw.ee.llvm.LLVMCompileServer;
 import pl.edu.pw.ee.llvm.LLVMCompiler;
+import pl.edu.pw.ee.llvm.NativeOutput;
+import pl.edu.pw.ee.llvm.OptimizationLevel;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedList;
 
 public class Main {
 
     public static void main(String[] args) throws Exception {
-        final var compiler = new LLVMCompiler();
-        compiler.compile("test.hj");
+        final var arguments = new LinkedList<>(Arrays.asList(args));
+        final var options = parseOptions(arguments);
+        final var compiler = new LLVMCompiler(options);
+
+        if (arguments.isEmpty()) {
+            compiler.compile("test.hj");
+            return;
+        }
+
+        switch (arguments.peek()) {
+            case "--server" -> new LLVMCompileServer(compiler).serve(arguments.get(1));
+            case "--client" -> {
+                try (final var client = new LLVMCompileClient(arguments.get(1))) {
+                    for (final var source : arguments.subList(2, arguments.size())) {
+                        System.out.println(client.compileFile(Path.of(source)));
+                    }
+                }
+            }
+            case "--stats" -> {
+                try (final var client = new LLVMCompileClient(arguments.get(1))) {
+                    System.out.println(client.stats());
+                }
+            }
+            default -> {
+                final var batchCompiler = new LLVMBatchCompiler(compiler);
+                final var summary = batchCompiler.compile(arguments.stream().map(Path::of).toList());
+                System.out.println(summary);
+
+                // Potok budujący wiele plików rozpoznaje błąd tylko po kodzie wyjścia
+                if (summary.failed() > 0) {
+                    System.exit(1);
+                }
+            }
+        }
     }
 
-}
+    private static CompilerOptions parseOptions(LinkedList<String> arguments) {
+        final var options = new CompilerOptions();
+
+        while (!arguments.isEmpty()) {
+            switch (arguments.peek()) {
+                case "--cache" -> {
+                    arguments.pop();
+                    options.cacheDirectory = Path.of(arguments.pop());
+                }
+                case "--unbuffered" -> {
+                    arguments.pop();
+                    options.unbufferedTokens = true;
+                }
+                case "--profile-parser" -> {
+                    arguments.pop();
+                    options.profileParser = true;
+                }
+                case "--time-phases" -> {
+                    arguments.pop();
+                    options.timePhases = true;
+                }
+                case "--no-opt" -> {
+                    arguments.pop();
+                    options.optimize = false;
+                }
+                case "--release" -> {
+                    arguments.pop();
+                    options.checkBounds = false;
+                }
+                case "--exe" -> {
+                    arguments.pop();
+                    options.nativeOutput = NativeOutput.EXECUTABLE;
+                }
+                case "--obj" -> {
+                    arguments.pop();
+                    options.nativeOutput = NativeOutput.OBJECT;
+                }
+                case "--lto" -> {
+                    arguments.pop();
+                    options.linkTimeOptimization = true;
+                }
+                case "--llvm-dir" -> {
+                    arguments.pop();
+                    options.llvmDirectory = Path.of(arguments.pop());
+                }
+                case "--inline-budget" -> {
+                    arguments.pop();
+                    options.inlineBudget = Integer.parseInt(arguments.pop());
+                }
+                case "--inline-report" -> {
+                    arguments.pop();
+                    options.reportInlining = true;
+                }
+                default -> {
+                    final var level = OptimizationLevel.fromFlag(arguments.peek());
 
+                    if (level == null) {
+                        return options;
+                    }
+
+                    arguments.pop();
+                    options.optimizationLevel = level;
+                }
+            }
+        }
+
+        return options;
+    }
+
+}
@@ -0,0 +1,36 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class BasicBlock {
+
+    final String label;
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<BasicBlock> successors = new ArrayList<>();
+    final List<BasicBlock> predecessors = new ArrayList<>();
+
+    BasicBlock(String label) {
+        this.label = label;
+    }
+
+    Instruction terminator() {
+        for (final var instruction : instructions) {
+            if (instruction.opcode.isTerminator()) {
+                return instruction;
+            }
+        }
+
+        return null;
+    }
+
+    String reference() {
+        return "%" + branchTarget();
+    }
+
+    // Blok wejściowy nie ma etykiety, LLVM nadaje mu numer 0, bo rejestry numerujemy od 1
+    String branchTarget() {
+        return label == null ? "0" : label;
+    }
+
+}
@@ -1,5 +1,6 @@
 package pl.edu.pw.ee.llvm;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -8,25 +9,34 @@ import java.util.Map;
 public class Clazz {
 
     public String name;
+    public final CustomType type;
     public Map<String, Value> fields = new LinkedHashMap<>();
     public List<Function> methods = new LinkedList<>();
+    private final Map<String, Integer> fieldOffsets = new HashMap<>();
+    private final Map<String, Function> methodsByName = new HashMap<>();
 
     public Clazz(String name) {
         this.name = name;
+        this.type = new CustomType(name);
     }
 
-    public int getFieldOffsetNumber(String fieldName) {
-        var offset = 0;
+    // Przesunięcie pola ustalamy przy deklaracji, żeby odczyt this.x nie przeglądał wszystkich pól
+    public void addField(String fieldName, Value field) {
+        fields.put(fieldName, field);
+        fieldOffsets.putIfAbsent(fieldName, fieldOffsets.size());
+    }
 
-        for (final var entry : fields.entrySet()) {
-            if (entry.getKey().equals(fieldName)) {
-                return offset;
-            }
+    public int getFieldOffsetNumber(String fieldName) {
+        final var offset = fieldOffsets.get(fieldName);
+        return offset == null ? -1 : offset;
+    }
 
-            offset++;
-        }
+    public void addMethod(String methodName, Function method) {
+        methodsByName.put(methodName, method);
+    }
 
-        return -1;
+    public Function getMethod(String methodName) {
+        return methodsByName.get(methodName);
     }
 
 }
@@ -0,0 +1,76 @@
+package pl.edu.pw.ee.llvm;
+
+import com.sun.management.ThreadMXBean;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+class CompilationPhases {
+
+    private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final String source;
+    private final boolean isReporting;
+    private final Map<String, long[]> measurements = new LinkedHashMap<>();
+
+    CompilationPhases(String source, boolean isReporting) {
+        this.source = source;
+        this.isReporting = isReporting;
+    }
+
+    void measure(String phase, Runnable action) {
+        measure(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    <T> T measure(String phase, Supplier<T> action) {
+        final var event = new CompilePhaseEvent();
+        final var isMeasuring = isReporting || event.isEnabled();
+        final var allocatedBefore = isMeasuring ? THREADS.getCurrentThreadAllocatedBytes() : 0;
+        final var start = System.nanoTime();
+        event.begin();
+        final var result = action.get();
+        event.end();
+        final var elapsed = System.nanoTime() - start;
+
+        if (!isMeasuring) {
+            return result;
+        }
+
+        final var allocated = THREADS.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        if (event.shouldCommit()) {
+            event.source = source;
+            event.phase = phase;
+            event.allocated = allocated;
+            event.commit();
+        }
+
+        if (isReporting) {
+            measurements.put(phase, new long[]{elapsed, allocated});
+        }
+
+        return result;
+    }
+
+    String report() {
+        final var report = new StringBuilder(source).append(System.lineSeparator());
+        var totalTime = 0L;
+        var totalAllocated = 0L;
+
+        for (final var measurement : measurements.entrySet()) {
+            final var time = measurement.getValue()[0];
+            final var allocated = measurement.getValue()[1];
+            report.append(String.format("  %-8s %10.3f ms %12d KB%n", measurement.getKey(), time / 1_000_000.0, allocated / 1024));
+            totalTime += time;
+            totalAllocated += allocated;
+        }
+
+        report.append(String.format("  %-8s %10.3f ms %12d KB%n", "total", totalTime / 1_000_000.0, totalAllocated / 1024));
+        return report.toString();
+    }
+
+}
@@ -0,0 +1,24 @@
+package pl.edu.pw.ee.llvm;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pl.edu.pw.ee.CompilePhase")
+@Label("Compile Phase")
+@Category("HolyJava")
+class CompilePhaseEvent extends Event {
+
+    @Label("Source")
+    String source;
+
+    @Label("Phase")
+    String phase;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+}
@@ -0,0 +1,23 @@
+package pl.edu.pw.ee.llvm;
+
+import java.nio.file.Path;
+
+public class CompilerOptions {
+
+    public Path cacheDirectory;
+    public boolean unbufferedTokens;
+    public boolean profileParser;
+    public boolean timePhases;
+    public boolean optimize = true;
+    // Tryb release nie sprawdza indeksów tablic w czasie działania
+    public boolean checkBounds = true;
+    // Bez rodzaju wyniku kompilator zapisuje sam moduł .ll
+    public NativeOutput nativeOutput;
+    public OptimizationLevel optimizationLevel = OptimizationLevel.O2;
+    public boolean linkTimeOptimization;
+    public Path llvmDirectory;
+    // Największa liczba instrukcji funkcji wstawianej w miejsce wywołania, 0 wyłącza wstawianie
+    public int inlineBudget = 40;
+    public boolean reportInlining;
+
+}
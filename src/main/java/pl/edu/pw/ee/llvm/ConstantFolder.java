@@ -0,0 +1,276 @@
+package pl.edu.pw.ee.llvm;
+
+// Wyrażenia ze stałymi argumentami liczymy w czasie kompilacji, zachowując semantykę odpowiednich instrukcji LLVM.
+// Null oznacza, że wyniku nie da się (albo nie wolno) policzyć i trzeba wygenerować instrukcję.
+final class ConstantFolder {
+
+    static final Constant TRUE = new Constant("1", PrimitiveType.BOOLEAN);
+    static final Constant FALSE = new Constant("0", PrimitiveType.BOOLEAN);
+
+    private ConstantFolder() {
+    }
+
+    static Constant bool(boolean value) {
+        return value ? TRUE : FALSE;
+    }
+
+    static boolean isTrue(Constant constant) {
+        return !constant.name().equals(FALSE.name());
+    }
+
+    static Constant arithmetic(Opcode opcode, Value left, Value right) {
+        if (!(left instanceof Constant) || !(right instanceof Constant) || left.type != right.type) {
+            return null;
+        }
+
+        return switch ((PrimitiveType) left.type) {
+            case INT, LONG -> integerArithmetic(opcode, left, right);
+            case FLOAT, DOUBLE -> floatingArithmetic(opcode, left, right);
+            default -> null;
+        };
+    }
+
+    private static Constant integerArithmetic(Opcode opcode, Value left, Value right) {
+        final var a = integerValue(left);
+        final var b = integerValue(right);
+
+        if (a == null || b == null) {
+            return null;
+        }
+
+        final var isInt = left.type == PrimitiveType.INT;
+        final var min = isInt ? Integer.MIN_VALUE : Long.MIN_VALUE;
+
+        // Dzielenie przez zero i MIN / -1 to w LLVM zachowanie niezdefiniowane, zostawiamy je na czas wykonania
+        if (opcode == Opcode.DIV && (b == 0 || (a == min && b == -1))) {
+            return null;
+        }
+
+        final long result = switch (opcode) {
+            case ADD -> isInt ? (long) (a.intValue() + b.intValue()) : a + b;
+            case SUB -> isInt ? (long) (a.intValue() - b.intValue()) : a - b;
+            case MUL -> isInt ? (long) (a.intValue() * b.intValue()) : a * b;
+            case DIV -> a / b;
+            default -> throw new IllegalArgumentException(opcode.name());
+        };
+
+        return integerConstant(result, (PrimitiveType) left.type);
+    }
+
+    private static Constant floatingArithmetic(Opcode opcode, Value left, Value right) {
+        final var a = floatingValue(left);
+        final var b = floatingValue(right);
+
+        if (a == null || b == null) {
+            return null;
+        }
+
+        final double result;
+
+        if (left.type == PrimitiveType.FLOAT) {
+            final var x = a.floatValue();
+            final var y = b.floatValue();
+            result = switch (opcode) {
+                case ADD -> x + y;
+                case SUB -> x - y;
+                case MUL -> x * y;
+                case DIV -> x / y;
+                default -> throw new IllegalArgumentException(opcode.name());
+            };
+        } else {
+            result = switch (opcode) {
+                case ADD -> a + b;
+                case SUB -> a - b;
+                case MUL -> a * b;
+                case DIV -> a / b;
+                default -> throw new IllegalArgumentException(opcode.name());
+            };
+        }
+
+        return floatingConstant(result, (PrimitiveType) left.type);
+    }
+
+    // Warunki jak w icmp/fcmp: ult i ugt porównują liczby całkowite bez znaku, o* to porównania uporządkowane
+    static Constant compare(String condition, Value left, Value right) {
+        if (!(left instanceof Constant) || !(right instanceof Constant) || left.type != right.type) {
+            return null;
+        }
+
+        // Literały są internowane, więc dwa stałe napisy są równe dokładnie wtedy, gdy to ten sam napis globalny
+        if (left.type == PrimitiveType.STRING) {
+            return switch (condition) {
+                case "eq" -> bool(left.name().equals(right.name()));
+                case "ne" -> bool(!left.name().equals(right.name()));
+                default -> null;
+            };
+        }
+
+        if (left.type == PrimitiveType.FLOAT || left.type == PrimitiveType.DOUBLE) {
+            final var a = floatingValue(left);
+            final var b = floatingValue(right);
+
+            if (a == null || b == null) {
+                return null;
+            }
+
+            return switch (condition) {
+                case "oeq" -> bool(a.doubleValue() == b.doubleValue());
+                case "une" -> bool(a.doubleValue() != b.doubleValue());
+                case "olt" -> bool(a < b);
+                case "ogt" -> bool(a > b);
+                default -> null;
+            };
+        }
+
+        final var a = integerValue(left);
+        final var b = integerValue(right);
+
+        if (a == null || b == null) {
+            return null;
+        }
+
+        final var isLong = left.type == PrimitiveType.LONG;
+        final var unsigned = isLong ? Long.compareUnsigned(a, b) : Integer.compareUnsigned(a.intValue(), b.intValue());
+
+        return switch (condition) {
+            case "eq" -> bool(a.longValue() == b.longValue());
+            case "ne" -> bool(a.longValue() != b.longValue());
+            case "ult" -> bool(unsigned < 0);
+            case "ugt" -> bool(unsigned > 0);
+            default -> null;
+        };
+    }
+
+    // Dla operacji logicznych wystarczy jeden stały argument, np. false & x to zawsze false
+    static Value and(Value left, Value right) {
+        if (left instanceof Constant constant) {
+            return isTrue(constant) ? right : FALSE;
+        }
+
+        if (right instanceof Constant constant) {
+            return isTrue(constant) ? left : FALSE;
+        }
+
+        return null;
+    }
+
+    static Value or(Value left, Value right) {
+        if (left instanceof Constant constant) {
+            return isTrue(constant) ? TRUE : right;
+        }
+
+        if (right instanceof Constant constant) {
+            return isTrue(constant) ? TRUE : left;
+        }
+
+        return null;
+    }
+
+    static Value xor(Value left, Value right) {
+        if (left instanceof Constant first && right instanceof Constant second) {
+            return bool(isTrue(first) != isTrue(second));
+        }
+
+        if (left instanceof Constant constant && !isTrue(constant)) {
+            return right;
+        }
+
+        if (right instanceof Constant constant && !isTrue(constant)) {
+            return left;
+        }
+
+        return null;
+    }
+
+    static Constant not(Value value) {
+        return value instanceof Constant constant ? bool(!isTrue(constant)) : null;
+    }
+
+    static Constant cast(Value value, PrimitiveType targetType) {
+        if (!(value instanceof Constant)) {
+            return null;
+        }
+
+        final var isIntegerSource = value.type == PrimitiveType.INT || value.type == PrimitiveType.LONG;
+        final var isFloatingSource = value.type == PrimitiveType.FLOAT || value.type == PrimitiveType.DOUBLE;
+
+        if (isIntegerSource) {
+            final var integer = integerValue(value);
+
+            if (integer == null) {
+                return null;
+            }
+
+            return switch (targetType) {
+                case INT -> integerConstant(integer.intValue(), targetType);
+                case LONG -> integerConstant(integer, targetType);
+                case FLOAT -> floatingConstant((float) integer.longValue(), targetType);
+                case DOUBLE -> floatingConstant((double) integer.longValue(), targetType);
+                default -> null;
+            };
+        }
+
+        if (isFloatingSource) {
+            final var floating = floatingValue(value);
+
+            if (floating == null) {
+                return null;
+            }
+
+            return switch (targetType) {
+                case INT -> isInRange(floating, Integer.MIN_VALUE, Integer.MAX_VALUE) ? integerConstant(floating.intValue(), targetType) : null;
+                case LONG -> isInRange(floating, Long.MIN_VALUE, Long.MAX_VALUE) ? integerConstant(floating.longValue(), targetType) : null;
+                case FLOAT -> floatingConstant(floating.floatValue(), targetType);
+                case DOUBLE -> floatingConstant(floating, targetType);
+                default -> null;
+            };
+        }
+
+        return null;
+    }
+
+    // fptosi poza zakresem daje w LLVM wartość poison, więc takich rzutowań nie zwijamy
+    private static boolean isInRange(double value, long min, long max) {
+        return value >= (double) min && value < (double) max;
+    }
+
+    static Long integerValue(Value value) {
+        try {
+            final var parsed = Long.parseLong(value.name());
+            return value.type == PrimitiveType.INT && parsed != (int) parsed ? null : parsed;
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    static Double floatingValue(Value value) {
+        final var text = value.name();
+
+        try {
+            final var parsed = text.startsWith("0x")
+                    ? Double.longBitsToDouble(Long.parseUnsignedLong(text.substring(2), 16))
+                    : Double.parseDouble(text);
+            return value.type == PrimitiveType.FLOAT ? (double) (float) parsed : parsed;
+        } catch (NumberFormatException exception) {
+            return null;
+        }
+    }
+
+    private static Constant integerConstant(long value, PrimitiveType type) {
+        return new Constant(Long.toString(value), type);
+    }
+
+    private static Constant floatingConstant(double value, PrimitiveType type) {
+        return new Constant(floatingText(value, type), type);
+    }
+
+    // Float zapisujemy szesnastkowo, bo LLVM przyjmuje dziesiętny float tylko wtedy, gdy jest on dokładnie reprezentowalny
+    static String floatingText(double value, PrimitiveType type) {
+        if (type == PrimitiveType.DOUBLE && Double.isFinite(value)) {
+            return Double.toString(value);
+        }
+
+        return String.format("0x%016X", Double.doubleToRawLongBits(value));
+    }
+
+}
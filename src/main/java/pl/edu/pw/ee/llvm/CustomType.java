@@ -5,14 +5,16 @@ import java.util.Objects;
 public class CustomType implements Type {
 
     public final String name;
+    private final String llvmType;
 
     public CustomType(String name) {
         this.name = name;
+        this.llvmType = "%" + name;
     }
 
     @Override
     public String llvmType() {
-        return "%" + name;
+        return llvmType;
     }
 
     @Override
@@ -21,7 +23,7 @@ public class CustomType implements Type {
     }
 
     @Override
-    public String llvmPrintPattern() {
+    public String printSuffix() {
         return "";
     }
 
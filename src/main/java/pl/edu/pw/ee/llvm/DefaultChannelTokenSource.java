@@ -0,0 +1,58 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+
+// UnbufferedTokenStream, w przeciwieństwie do CommonTokenStream, nie pomija ukrytych tokenów
+class DefaultChannelTokenSource implements TokenSource {
+
+    private final TokenSource source;
+
+    DefaultChannelTokenSource(TokenSource source) {
+        this.source = source;
+    }
+
+    @Override
+    public Token nextToken() {
+        var token = source.nextToken();
+
+        while (token.getChannel() != Token.DEFAULT_CHANNEL && token.getType() != Token.EOF) {
+            token = source.nextToken();
+        }
+
+        return token;
+    }
+
+    @Override
+    public int getLine() {
+        return source.getLine();
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return source.getCharPositionInLine();
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return source.getInputStream();
+    }
+
+    @Override
+    public String getSourceName() {
+        return source.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        source.setTokenFactory(factory);
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return source.getTokenFactory();
+    }
+
+}
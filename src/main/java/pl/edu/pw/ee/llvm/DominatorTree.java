@@ -0,0 +1,187 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Drzewo dominatorów liczone algorytmem Coopera, Harveya i Kennedy'ego na osiągalnych blokach funkcji
+class DominatorTree {
+
+    final List<BasicBlock> order = new ArrayList<>();
+    private final Map<BasicBlock, Integer> indices = new IdentityHashMap<>();
+    private final Map<BasicBlock, BasicBlock> immediateDominators = new IdentityHashMap<>();
+    private final Map<BasicBlock, List<BasicBlock>> children = new IdentityHashMap<>();
+
+    DominatorTree(IRFunction function) {
+        computeReversePostorder(function.entry());
+        computeImmediateDominators(function.entry());
+
+        for (final var block : order) {
+            children.put(block, new ArrayList<>());
+        }
+
+        for (final var block : order) {
+            final var dominator = immediateDominators.get(block);
+
+            if (dominator != block) {
+                children.get(dominator).add(block);
+            }
+        }
+    }
+
+    boolean isReachable(BasicBlock block) {
+        return indices.containsKey(block);
+    }
+
+    BasicBlock immediateDominator(BasicBlock block) {
+        return immediateDominators.get(block);
+    }
+
+    List<BasicBlock> children(BasicBlock block) {
+        return children.get(block);
+    }
+
+    boolean dominates(BasicBlock dominator, BasicBlock block) {
+        var current = block;
+
+        while (current != dominator) {
+            final var next = immediateDominators.get(current);
+
+            if (next == null || next == current) {
+                return false;
+            }
+
+            current = next;
+        }
+
+        return true;
+    }
+
+    Map<BasicBlock, Set<BasicBlock>> frontiers() {
+        final Map<BasicBlock, Set<BasicBlock>> frontiers = new IdentityHashMap<>();
+
+        for (final var block : order) {
+            frontiers.put(block, new LinkedHashSet<>());
+        }
+
+        for (final var block : order) {
+            final var predecessors = reachablePredecessors(block);
+
+            if (predecessors.size() < 2) {
+                continue;
+            }
+
+            for (final var predecessor : predecessors) {
+                var runner = predecessor;
+
+                while (runner != immediateDominators.get(block)) {
+                    frontiers.get(runner).add(block);
+                    runner = immediateDominators.get(runner);
+                }
+            }
+        }
+
+        return frontiers;
+    }
+
+    private List<BasicBlock> reachablePredecessors(BasicBlock block) {
+        final List<BasicBlock> predecessors = new ArrayList<>();
+
+        for (final var predecessor : block.predecessors) {
+            if (isReachable(predecessor)) {
+                predecessors.add(predecessor);
+            }
+        }
+
+        return predecessors;
+    }
+
+    // Przejście w głąb bez rekurencji, bo długie programy mają tysiące bloków w jednym łańcuchu
+    private void computeReversePostorder(BasicBlock entry) {
+        final List<BasicBlock> postorder = new ArrayList<>();
+        final Set<BasicBlock> visited = new HashSet<>();
+        final var blocks = new ArrayDeque<BasicBlock>();
+        final var positions = new ArrayDeque<Integer>();
+        visited.add(entry);
+        blocks.push(entry);
+        positions.push(0);
+
+        while (!blocks.isEmpty()) {
+            final var block = blocks.peek();
+            final int position = positions.pop();
+
+            if (position < block.successors.size()) {
+                positions.push(position + 1);
+                final var successor = block.successors.get(position);
+
+                if (visited.add(successor)) {
+                    blocks.push(successor);
+                    positions.push(0);
+                }
+
+                continue;
+            }
+
+            blocks.pop();
+            postorder.add(block);
+        }
+
+        for (var i = postorder.size() - 1; i >= 0; i--) {
+            indices.put(postorder.get(i), order.size());
+            order.add(postorder.get(i));
+        }
+    }
+
+    private void computeImmediateDominators(BasicBlock entry) {
+        immediateDominators.put(entry, entry);
+        var changed = true;
+
+        while (changed) {
+            changed = false;
+
+            for (final var block : order) {
+                if (block == entry) {
+                    continue;
+                }
+
+                BasicBlock dominator = null;
+
+                for (final var predecessor : block.predecessors) {
+                    if (!immediateDominators.containsKey(predecessor)) {
+                        continue;
+                    }
+
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator);
+                }
+
+                if (dominator != null && immediateDominators.get(block) != dominator) {
+                    immediateDominators.put(block, dominator);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private BasicBlock intersect(BasicBlock first, BasicBlock second) {
+        var finger1 = first;
+        var finger2 = second;
+
+        while (finger1 != finger2) {
+            while (indices.get(finger1) > indices.get(finger2)) {
+                finger1 = immediateDominators.get(finger1);
+            }
+
+            while (indices.get(finger2) > indices.get(finger1)) {
+                finger2 = immediateDominators.get(finger2);
+            }
+        }
+
+        return finger1;
+    }
+
+}
@@ -0,0 +1,236 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Usuwa sprawdzenia indeksów, o których wiadomo, że zawsze przechodzą. Porównania w języku są bez znaku, więc krawędź
+// za warunkiem "x < K" ogranicza x z góry przez K, a zmienna pętli (phi) jest ograniczona przez największe z ograniczeń
+// wartości, z którymi do niej wchodzimy. Ograniczenie daje też każde sprawdzenie lub warunek dominujący nad blokiem.
+class EliminateBoundsChecks implements IRPass {
+
+    private static final long UNBOUNDED = Long.MAX_VALUE;
+    // Większych ograniczeń nie używamy: poniżej 2^31 rozszerzenie ze znakiem nie zmienia wartości, a dodanie stałej
+    // nie przepełnia nawet i32
+    private static final long LIMIT = 1L << 31;
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final var analysis = new Analysis(function);
+        var isChanged = false;
+
+        for (final var block : function.blocks) {
+            final var terminator = block.instructions.getLast();
+            final var check = analysis.check(terminator);
+
+            if (check == null || analysis.upperBound(check.index(), block) > check.length()) {
+                continue;
+            }
+
+            block.instructions.set(block.instructions.size() - 1, new Instruction(Opcode.BR, null, "void", "br label %#0",
+                    Instruction.NONE, new String[]{terminator.targets[0]}, null));
+            isChanged = true;
+        }
+
+        if (isChanged) {
+            function.computeEdges();
+        }
+    }
+
+    private record Check(String index, long length) {
+    }
+
+    private static final class Analysis {
+
+        private final Map<String, Instruction> definitions = new HashMap<>();
+        private final Map<String, BasicBlock> blocks = new HashMap<>();
+        private final Map<String, BasicBlock> definitionBlocks = new HashMap<>();
+        private final Map<String, Long> bounds = new HashMap<>();
+        private final DominatorTree dominators;
+
+        Analysis(IRFunction function) {
+            for (final var block : function.blocks) {
+                blocks.put(block.branchTarget(), block);
+
+                for (final var instruction : block.instructions) {
+                    if (instruction.result != null) {
+                        definitions.put(instruction.result, instruction);
+                        definitionBlocks.put(instruction.result, block);
+                    }
+                }
+            }
+
+            dominators = new DominatorTree(function);
+        }
+
+        // Sprawdzenie to skok warunkowy, którego gałąź "fałsz" zaczyna się od wywołania zgłaszającego błąd indeksu
+        Check check(Instruction terminator) {
+            if (terminator.opcode != Opcode.BR || terminator.targets.length != 2) {
+                return null;
+            }
+
+            final var failure = blocks.get(terminator.targets[1]);
+            final var compare = definitions.get(terminator.operands[0]);
+
+            if (failure == null || !PrintRuntime.FAIL_BOUNDS.equals(failure.instructions.getFirst().callee)
+                    || compare == null || !compare.template.startsWith("icmp ult ")) {
+                return null;
+            }
+
+            return new Check(compare.operands[0], Long.parseLong(compare.operands[1]));
+        }
+
+        // Najmniejsze znane K takie, że value < K (bez znaku) w bloku
+        long upperBound(String value, BasicBlock block) {
+            var bound = valueBound(value);
+            var current = block;
+
+            while (true) {
+                if (current.predecessors.size() == 1) {
+                    bound = Math.min(bound, edgeBound(value, current.predecessors.getFirst(), current));
+                }
+
+                final var dominator = dominators.immediateDominator(current);
+
+                if (dominator == null || dominator == current) {
+                    return bound;
+                }
+
+                current = dominator;
+            }
+        }
+
+        // Ograniczenie wynikające z samej definicji wartości, prawdziwe wszędzie, gdzie jest ona dostępna
+        private long valueBound(String value) {
+            final var constant = constantValue(value);
+
+            if (constant != null) {
+                return constant < 0 ? UNBOUNDED : constant + 1;
+            }
+
+            final var known = bounds.get(value);
+
+            if (known != null) {
+                return known;
+            }
+
+            // Cykl przez phi pętli: dopóki liczymy, zakładamy brak ograniczenia
+            bounds.put(value, UNBOUNDED);
+            final var bound = computeValueBound(definitions.get(value));
+            bounds.put(value, bound);
+            return bound;
+        }
+
+        private long computeValueBound(Instruction definition) {
+            if (definition == null) {
+                return UNBOUNDED;
+            }
+
+            return switch (definition.opcode) {
+                case CAST -> {
+                    final var source = valueBound(definition.operands[0]);
+
+                    if (definition.template.startsWith("zext")) {
+                        yield source;
+                    }
+
+                    yield definition.template.startsWith("sext") && source <= LIMIT ? source : UNBOUNDED;
+                }
+                case ADD -> {
+                    final var left = constantValue(definition.operands[0]);
+                    final var right = constantValue(definition.operands[1]);
+                    final var step = left != null ? left : right;
+                    final var base = valueBound(definition.operands[left != null ? 1 : 0]);
+
+                    yield step == null || step < 0 || base > LIMIT || base + step > LIMIT ? UNBOUNDED : base + step;
+                }
+                case PHI -> {
+                    final var block = definitionBlocks.get(definition.result);
+                    var bound = 0L;
+
+                    for (var i = 0; i < definition.operands.length && bound != UNBOUNDED; i++) {
+                        final var operand = definition.operands[i];
+                        final var predecessor = blocks.get(definition.targets[i]);
+                        final var incoming = valueBound(operand);
+                        bound = Math.max(bound, predecessor == null ? incoming : Math.min(incoming, edgeBound(operand, predecessor, block)));
+                    }
+
+                    yield bound;
+                }
+                default -> UNBOUNDED;
+            };
+        }
+
+        // Ograniczenie z warunku skoku na krawędzi predecessor -> block
+        private long edgeBound(String value, BasicBlock predecessor, BasicBlock block) {
+            final var terminator = predecessor.instructions.getLast();
+
+            if (block == null || terminator.opcode != Opcode.BR || terminator.targets.length != 2
+                    || terminator.targets[0].equals(terminator.targets[1])) {
+                return UNBOUNDED;
+            }
+
+            final var compare = definitions.get(terminator.operands[0]);
+
+            if (compare == null || compare.opcode != Opcode.COMPARE) {
+                return UNBOUNDED;
+            }
+
+            final var isTaken = terminator.targets[0].equals(block.branchTarget());
+            final var left = compare.operands[0];
+            final var right = compare.operands[1];
+
+            // Po "x < K" mamy x < K, po "K > x" też, a po zaprzeczeniu "K < x" i "x > K" mamy x <= K
+            if (compare.template.startsWith("icmp ult ")) {
+                return isTaken ? limit(value, left, right, 0) : limit(value, right, left, 1);
+            }
+
+            if (compare.template.startsWith("icmp ugt ")) {
+                return isTaken ? limit(value, right, left, 0) : limit(value, left, right, 1);
+            }
+
+            return UNBOUNDED;
+        }
+
+        private long limit(String value, String smaller, String larger, int inclusive) {
+            final var constant = constantValue(larger);
+
+            if (constant == null || constant < 0 || constant + inclusive > LIMIT || !isSameValue(value, smaller)) {
+                return UNBOUNDED;
+            }
+
+            return constant + inclusive;
+        }
+
+        // Ta sama wartość albo rozszerzenie tej samej wartości, co przy ograniczeniu poniżej 2^31 daje tę samą liczbę
+        private boolean isSameValue(String value, String other) {
+            return value.equals(other) || root(value).equals(root(other));
+        }
+
+        private String root(String value) {
+            var current = value;
+            var definition = definitions.get(current);
+
+            while (definition != null && definition.opcode == Opcode.CAST
+                    && (definition.template.startsWith("sext") || definition.template.startsWith("zext"))) {
+                current = definition.operands[0];
+                definition = definitions.get(current);
+            }
+
+            return current;
+        }
+
+        private static Long constantValue(String operand) {
+            if (operand.isEmpty() || !(Character.isDigit(operand.charAt(0)) || operand.charAt(0) == '-')) {
+                return null;
+            }
+
+            try {
+                return Long.parseLong(operand);
+            } catch (NumberFormatException exception) {
+                return null;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Usuwa martwe zapisy i martwe zmienne: pamięć, z której nikt nie czyta, zapisy nadpisane przed odczytem
+// oraz instrukcje bez efektów ubocznych, których wyniku nikt nie używa
+class EliminateDeadCode implements IRPass {
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final Set<Instruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        findWriteOnlyMemory(function, IRModule.MAIN.equals(function.name) ? module.functionGlobals(function) : null, dead);
+        findOverwrittenStores(function, dead);
+        removeAll(function, dead);
+        removeUnusedResults(function);
+    }
+
+    // Alloca albo zmienna globalna main, do której tylko się pisze (także przez getelementptr i bitcast), jest martwa
+    private static void findWriteOnlyMemory(IRFunction function, Set<String> functionGlobals, Set<Instruction> dead) {
+        final Map<String, String> roots = new HashMap<>();
+        final Map<String, List<Instruction>> writes = new HashMap<>();
+        final Set<String> escaped = new HashSet<>();
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                if (instruction.opcode == Opcode.ALLOCA) {
+                    addRoot(roots, writes, instruction.result, instruction);
+                    continue;
+                }
+
+                for (var i = 0; i < instruction.operands.length; i++) {
+                    final var operand = instruction.operands[i];
+                    var root = roots.get(operand);
+
+                    if (root == null && functionGlobals != null && operand.startsWith("@") && !functionGlobals.contains(operand)) {
+                        root = addRoot(roots, writes, operand, null);
+                    }
+
+                    if (root == null) {
+                        continue;
+                    }
+
+                    if (isWrite(instruction, i)) {
+                        writes.get(root).add(instruction);
+                    } else if (isDerivedPointer(instruction, i)) {
+                        roots.put(instruction.result, root);
+                        writes.get(root).add(instruction);
+                    } else {
+                        escaped.add(root);
+                    }
+                }
+            }
+        }
+
+        for (final var entry : writes.entrySet()) {
+            if (!escaped.contains(entry.getKey())) {
+                dead.addAll(entry.getValue());
+            }
+        }
+    }
+
+    private static String addRoot(Map<String, String> roots, Map<String, List<Instruction>> writes, String name, Instruction allocation) {
+        roots.put(name, name);
+        final List<Instruction> instructions = new ArrayList<>();
+
+        if (allocation != null) {
+            instructions.add(allocation);
+        }
+
+        writes.put(name, instructions);
+        return name;
+    }
+
+    private static boolean isWrite(Instruction instruction, int operand) {
+        return instruction.opcode == Opcode.STORE && operand == 1
+                || instruction.opcode == Opcode.CALL && LLVMGenerator.MEMCPY.equals(instruction.callee) && operand == 0;
+    }
+
+    private static boolean isDerivedPointer(Instruction instruction, int operand) {
+        return operand == 0 && (instruction.opcode == Opcode.GETELEMENTPTR
+                || instruction.opcode == Opcode.CAST && instruction.template.startsWith("bitcast"));
+    }
+
+    // Zapis, po którym w tym samym bloku następuje zapis pod ten sam adres bez żadnego odczytu pomiędzy, jest zbędny
+    private static void findOverwrittenStores(IRFunction function, Set<Instruction> dead) {
+        final Map<String, Instruction> pending = new HashMap<>();
+
+        for (final var block : function.blocks) {
+            pending.clear();
+
+            for (final var instruction : block.instructions) {
+                switch (instruction.opcode) {
+                    case STORE -> {
+                        final var previous = pending.put(instruction.operands[1], instruction);
+
+                        if (previous != null) {
+                            dead.add(previous);
+                        }
+                    }
+                    // Nie śledzimy aliasów, więc każdy odczyt lub wywołanie może czytać dowolny z oczekujących zapisów
+                    case LOAD, CALL -> pending.clear();
+                    default -> {
+                    }
+                }
+            }
+        }
+    }
+
+    private static void removeUnusedResults(IRFunction function) {
+        final Map<String, Instruction> definitions = new HashMap<>();
+        final Map<String, Integer> uses = new HashMap<>();
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                if (instruction.result != null) {
+                    definitions.put(instruction.result, instruction);
+                }
+
+                for (final var operand : instruction.operands) {
+                    uses.merge(operand, 1, Integer::sum);
+                }
+            }
+        }
+
+        final Set<Instruction> dead = Collections.newSetFromMap(new IdentityHashMap<>());
+        final var worklist = new ArrayDeque<Instruction>();
+
+        for (final var instruction : definitions.values()) {
+            if (isRemovable(instruction, uses)) {
+                worklist.push(instruction);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            final var instruction = worklist.pop();
+
+            if (!dead.add(instruction)) {
+                continue;
+            }
+
+            for (final var operand : instruction.operands) {
+                uses.merge(operand, -1, Integer::sum);
+                final var definition = definitions.get(operand);
+
+                if (definition != null && isRemovable(definition, uses)) {
+                    worklist.push(definition);
+                }
+            }
+        }
+
+        removeAll(function, dead);
+    }
+
+    private static boolean isRemovable(Instruction instruction, Map<String, Integer> uses) {
+        return !instruction.opcode.hasSideEffects() && uses.getOrDefault(instruction.result, 0) == 0;
+    }
+
+    private static void removeAll(IRFunction function, Set<Instruction> dead) {
+        if (dead.isEmpty()) {
+            return;
+        }
+
+        for (final var block : function.blocks) {
+            block.instructions.removeIf(dead::contains);
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package pl.edu.pw.ee.llvm;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("pl.edu.pw.ee.EmitUnit")
+@Label("Emit Function or Class")
+@Category("HolyJava")
+class EmitUnitEvent extends Event {
+
+    @Label("Kind")
+    String kind;
+
+    @Label("Name")
+    String name;
+
+    @Label("Cached")
+    boolean cached;
+
+}
@@ -0,0 +1,117 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Tablica lub macierz, do której poza kopią literału nikt nie pisze, może być czytana prosto ze stałej literału:
+// znika alloca (albo zmienna globalna main przestaje być używana) i memcpy przy każdym wykonaniu literału
+class ForwardConstantInitializers implements IRPass {
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final var functionGlobals = IRModule.MAIN.equals(function.name) ? module.functionGlobals(function) : null;
+        final Map<String, String> definitions = new HashMap<>();
+        final Map<String, String> roots = new HashMap<>();
+        final Map<String, List<Instruction>> copies = new HashMap<>();
+        final Map<String, String> sources = new HashMap<>();
+        final Set<String> written = new HashSet<>();
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                if (instruction.opcode == Opcode.ALLOCA) {
+                    roots.put(instruction.result, instruction.result);
+                    continue;
+                }
+
+                if (isBitcast(instruction)) {
+                    definitions.put(instruction.result, instruction.operands[0]);
+                }
+
+                for (var i = 0; i < instruction.operands.length; i++) {
+                    final var operand = instruction.operands[i];
+                    var root = roots.get(operand);
+
+                    if (root == null && functionGlobals != null && operand.startsWith("@") && !functionGlobals.contains(operand)
+                            && !operand.endsWith(LLVMGenerator.INITIALIZER)) {
+                        root = operand;
+                        roots.put(operand, operand);
+                    }
+
+                    if (root == null) {
+                        continue;
+                    }
+
+                    if (isDerivedPointer(instruction, i)) {
+                        roots.put(instruction.result, root);
+                    } else if (isInitialization(instruction, i, definitions)) {
+                        copies.computeIfAbsent(root, key -> new ArrayList<>()).add(instruction);
+                        sources.put(root, definitions.get(instruction.operands[1]));
+                    } else if (!isRead(instruction, i)) {
+                        written.add(root);
+                    }
+                }
+            }
+        }
+
+        final Map<String, String> replacements = new HashMap<>();
+        final Set<Instruction> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (final var entry : copies.entrySet()) {
+            final var root = entry.getKey();
+
+            // Jedna kopia literału i żadnego zapisu: każdy odczyt widzi wartości stałej
+            if (!written.contains(root) && entry.getValue().size() == 1) {
+                replacements.put(root, sources.get(root));
+                removed.addAll(entry.getValue());
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        for (final var block : function.blocks) {
+            block.instructions.removeIf(removed::contains);
+
+            for (final var instruction : block.instructions) {
+                for (var i = 0; i < instruction.operands.length; i++) {
+                    final var replacement = replacements.get(instruction.operands[i]);
+
+                    if (replacement != null) {
+                        instruction.operands[i] = replacement;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isBitcast(Instruction instruction) {
+        return instruction.opcode == Opcode.CAST && instruction.template.startsWith("bitcast");
+    }
+
+    private static boolean isDerivedPointer(Instruction instruction, int operand) {
+        return operand == 0 && (instruction.opcode == Opcode.GETELEMENTPTR || isBitcast(instruction));
+    }
+
+    // Kopia całego literału ze stałej, którą generator tworzy dla każdej tablicy i macierzy
+    private static boolean isInitialization(Instruction instruction, int operand, Map<String, String> definitions) {
+        if (operand != 0 || instruction.opcode != Opcode.CALL || !LLVMGenerator.MEMCPY.equals(instruction.callee)) {
+            return false;
+        }
+
+        final var source = definitions.get(instruction.operands[1]);
+        return source != null && source.endsWith(LLVMGenerator.INITIALIZER);
+    }
+
+    private static boolean isRead(Instruction instruction, int operand) {
+        return instruction.opcode == Opcode.LOAD && operand == 0
+                || instruction.opcode == Opcode.CALL && PrintRuntime.isPrint(instruction.callee);
+    }
+
+}
@@ -0,0 +1,128 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class IRFunction {
+
+    final String name;
+    final String header;
+    final List<BasicBlock> blocks = new ArrayList<>();
+    // Nazwy parametrów w kolejności nagłówka, np. %this, %a
+    final List<String> parameters = new ArrayList<>();
+    // Stałe globalne należące do funkcji (np. jej napisy), wypisywane i usuwane razem z nią
+    final StringBuilder globals = new StringBuilder();
+    final String text;
+
+    IRFunction(String name, String header) {
+        this.name = name;
+        this.header = header;
+        this.text = null;
+        blocks.add(new BasicBlock(null));
+    }
+
+    // Funkcja wczytana z pamięci podręcznej jest już gotowym tekstem
+    private IRFunction(String name, String globals, String text) {
+        this.name = name;
+        this.header = null;
+        this.globals.append(globals);
+        this.text = text;
+    }
+
+    static IRFunction opaque(String name, String globals, String text) {
+        return new IRFunction(name, globals, text);
+    }
+
+    boolean isOpaque() {
+        return text != null;
+    }
+
+    BasicBlock entry() {
+        return blocks.getFirst();
+    }
+
+    BasicBlock currentBlock() {
+        return blocks.getLast();
+    }
+
+    void append(Instruction instruction) {
+        currentBlock().instructions.add(instruction);
+    }
+
+    void startBlock(String label) {
+        blocks.add(new BasicBlock(label));
+    }
+
+    // Instrukcje za pierwszym skokiem lub return w bloku nigdy się nie wykonają, np. kod po return w treści funkcji
+    boolean truncateAfterTerminators() {
+        var isTruncated = false;
+
+        for (final var block : blocks) {
+            final var instructions = block.instructions;
+
+            for (var i = 0; i < instructions.size() - 1; i++) {
+                if (instructions.get(i).opcode.isTerminator()) {
+                    instructions.subList(i + 1, instructions.size()).clear();
+                    isTruncated = true;
+                    break;
+                }
+            }
+        }
+
+        return isTruncated;
+    }
+
+    // Alloca poza blokiem wejściowym rezerwuje nową pamięć przy każdym wykonaniu, np. w każdym obrocie pętli,
+    // więc wszystkie przenosimy na początek funkcji
+    void hoistAllocas() {
+        final List<Instruction> allocas = new ArrayList<>();
+
+        for (final var block : blocks) {
+            final var iterator = block.instructions.iterator();
+
+            while (iterator.hasNext()) {
+                final var instruction = iterator.next();
+
+                if (instruction.opcode == Opcode.ALLOCA) {
+                    allocas.add(instruction);
+                    iterator.remove();
+                }
+            }
+        }
+
+        entry().instructions.addAll(0, allocas);
+    }
+
+    void computeEdges() {
+        final Map<String, BasicBlock> blocksByLabel = new HashMap<>();
+
+        for (final var block : blocks) {
+            block.successors.clear();
+            block.predecessors.clear();
+
+            if (block.label != null) {
+                blocksByLabel.put(block.label, block);
+            }
+        }
+
+        for (final var block : blocks) {
+            final var terminator = block.terminator();
+
+            if (terminator == null) {
+                continue;
+            }
+
+            for (final var target : terminator.targets) {
+                final var successor = blocksByLabel.get(target);
+
+                if (successor != null && !block.successors.contains(successor)) {
+                    block.successors.add(successor);
+                    successor.predecessors.add(block);
+                }
+            }
+        }
+    }
+
+}
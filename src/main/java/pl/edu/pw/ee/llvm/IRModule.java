@@ -0,0 +1,123 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+class IRModule {
+
+    // Funkcja z instrukcjami spoza funkcji; jej zmienne są globalne
+    static final String MAIN = "main";
+    static final Pattern GLOBAL_NAME = Pattern.compile("@[A-Za-z_][\\w.]*");
+    final StringBuilder globals = new StringBuilder();
+    final List<IRFunction> functions = new ArrayList<>();
+    // Nazwy globalne (zmienne, napisy, funkcje), do których odwołuje się każda zamknięta funkcja
+    private final Map<String, Set<String>> references = new HashMap<>();
+    // Małe funkcje z wypisanych już partii według nazwy globalnej, zachowane jako IR do wstawiania w miejsca wywołań
+    private final Map<String, IRFunction> definitions = new HashMap<>();
+
+    void recordReferences(IRFunction function) {
+        references.put("@" + function.name, references(function));
+    }
+
+    // Zamknięta funkcja z bieżącej partii albo zachowana funkcja z wcześniejszej
+    IRFunction definition(String name) {
+        for (final var function : functions) {
+            if (name.equals("@" + function.name)) {
+                return function;
+            }
+        }
+
+        return definitions.get(name);
+    }
+
+    static Set<String> references(IRFunction function) {
+        final Set<String> names = new HashSet<>();
+
+        if (function.isOpaque()) {
+            addMatches(function.text, names);
+            return names;
+        }
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                for (final var operand : instruction.operands) {
+                    if (operand.startsWith("@")) {
+                        names.add(operand);
+                    }
+                }
+
+                if (instruction.callee != null) {
+                    names.add(instruction.callee);
+                }
+
+                if (instruction.template.indexOf('@') >= 0) {
+                    addMatches(instruction.template, names);
+                }
+            }
+        }
+
+        return names;
+    }
+
+    private static void addMatches(String text, Set<String> names) {
+        final var matcher = GLOBAL_NAME.matcher(text);
+
+        while (matcher.find()) {
+            names.add(matcher.group());
+        }
+    }
+
+    Set<String> allReferences() {
+        final Set<String> names = new HashSet<>();
+
+        for (final var called : references.values()) {
+            names.addAll(called);
+        }
+
+        return names;
+    }
+
+    // Funkcje, do których da się dojść z main przez wywołania, również pośrednie
+    Set<String> reachableFunctions(IRFunction main) {
+        final Set<String> reachable = new HashSet<>();
+        final var worklist = new ArrayDeque<>(references(main));
+
+        while (!worklist.isEmpty()) {
+            final var name = worklist.pop();
+            final var called = references.get(name);
+
+            if (called != null && reachable.add(name)) {
+                worklist.addAll(called);
+            }
+        }
+
+        return reachable;
+    }
+
+    // Zmienne globalne używane przez osiągalne funkcje, main nie może ich trzymać w rejestrach
+    Set<String> functionGlobals(IRFunction main) {
+        final Set<String> names = new HashSet<>();
+
+        for (final var function : reachableFunctions(main)) {
+            names.addAll(references.get(function));
+        }
+
+        return names;
+    }
+
+    void keep(IRFunction function) {
+        definitions.put("@" + function.name, function);
+    }
+
+    void clear() {
+        globals.setLength(0);
+        functions.clear();
+    }
+
+}
@@ -0,0 +1,9 @@
+package pl.edu.pw.ee.llvm;
+
+// Przebieg optymalizacji uruchamiany na gotowej funkcji, zanim zostanie wypisana
+@FunctionalInterface
+interface IRPass {
+
+    void run(IRFunction function, IRModule module);
+
+}
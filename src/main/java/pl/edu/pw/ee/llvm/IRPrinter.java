@@ -0,0 +1,66 @@
+package pl.edu.pw.ee.llvm;
+
+class IRPrinter {
+
+    private IRPrinter() {
+    }
+
+    static String print(IRFunction function) {
+        if (function.isOpaque()) {
+            return function.text;
+        }
+
+        final var text = new StringBuilder();
+        print(function, text);
+        return text.toString();
+    }
+
+    static void print(IRFunction function, StringBuilder text) {
+        if (function.isOpaque()) {
+            text.append(function.text);
+            return;
+        }
+
+        text.append(function.header).append("\n");
+
+        for (final var block : function.blocks) {
+            if (block.label != null) {
+                text.append(block.label).append(":\n");
+            }
+
+            for (final var instruction : block.instructions) {
+                print(instruction, text);
+                text.append("\n");
+            }
+        }
+
+        text.append("}\n");
+    }
+
+    static void print(Instruction instruction, StringBuilder text) {
+        if (instruction.result != null) {
+            text.append(instruction.result).append(" = ");
+        }
+
+        final var template = instruction.template;
+        var index = 0;
+
+        while (index < template.length()) {
+            final var character = template.charAt(index++);
+
+            if (character != '$' && character != '#') {
+                text.append(character);
+                continue;
+            }
+
+            var number = 0;
+
+            while (index < template.length() && Character.isDigit(template.charAt(index))) {
+                number = number * 10 + template.charAt(index++) - '0';
+            }
+
+            text.append(character == '$' ? instruction.operands[number] : instruction.targets[number]);
+        }
+    }
+
+}
@@ -0,0 +1,294 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+// Wywołania małych funkcji i metod zastępujemy ich treścią. Wywoływana funkcja jest zamknięta i zoptymalizowana wcześniej,
+// więc wstawiamy jej gotowy IR: parametry zamieniamy na argumenty (dla metod także this), wyniki, etykiety i własne stałe
+// globalne na nowe, a każdy return na skok do bloku za wywołaniem, w którym phi zbiera zwracane wartości.
+class InlineFunctions implements IRPass {
+
+    private static final String END = "inline_end_";
+    private static final String SUFFIX = ".i";
+    private final int budget;
+    private final StringBuilder report = new StringBuilder();
+    private int inlined;
+
+    // Budżet to największa liczba instrukcji wstawianej funkcji (bez alloca), 0 wyłącza wstawianie
+    InlineFunctions(int budget) {
+        this.budget = budget;
+    }
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        if (budget <= 0) {
+            return;
+        }
+
+        // Wywołania przeniesione z treści wstawianej funkcji zostały już w niej rozważone
+        final Set<Instruction> copied = Collections.newSetFromMap(new IdentityHashMap<>());
+        final var inlining = new Inlining(function, module, copied, maxRegister(function) + 1);
+
+        for (var b = 0; b < function.blocks.size(); b++) {
+            final var block = function.blocks.get(b);
+
+            for (var i = 0; i < block.instructions.size(); i++) {
+                final var call = block.instructions.get(i);
+
+                if (call.opcode != Opcode.CALL || copied.contains(call)) {
+                    continue;
+                }
+
+                final var callee = module.definition(call.callee);
+                final var size = callee == null ? -1 : size(callee);
+
+                if (size < 0 || size > budget || callee.parameters.size() != call.operands.length) {
+                    continue;
+                }
+
+                inlining.inline(b, i, call, callee);
+                report.append(String.format("  %s: inlined %s (%d instructions) in %s%n",
+                        function.name, call.callee, size, block.reference()));
+                inlined++;
+            }
+        }
+
+        if (inlining.count > 0) {
+            function.hoistAllocas();
+            function.computeEdges();
+        }
+    }
+
+    // Funkcji wczytanych z pamięci podręcznej nie znamy jako IR
+    private static int size(IRFunction callee) {
+        if (callee.isOpaque()) {
+            return -1;
+        }
+
+        var size = 0;
+
+        for (final var block : callee.blocks) {
+            for (final var instruction : block.instructions) {
+                if (instruction.opcode != Opcode.ALLOCA) {
+                    size++;
+                }
+            }
+        }
+
+        return size;
+    }
+
+    // Funkcję, którą da się wstawić, trzeba zachować jako IR także po wypisaniu jej partii
+    boolean accepts(IRFunction function) {
+        final var size = size(function);
+        return budget > 0 && size >= 0 && size <= budget;
+    }
+
+    // Rozmiar funkcji z pamięci podręcznej liczymy z jej tekstu: poza nagłówkiem, etykietami i alloca wiersz to instrukcja
+    boolean accepts(String text) {
+        if (budget <= 0) {
+            return false;
+        }
+
+        final var size = text.lines()
+                .filter(line -> !line.endsWith("{") && !line.endsWith(":") && !line.equals("}") && !line.contains(" = alloca "))
+                .count();
+        return size <= budget;
+    }
+
+    private static int maxRegister(IRFunction function) {
+        var max = 0;
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                final var result = instruction.result;
+
+                if (result != null && result.length() > 1 && result.chars().skip(1).allMatch(Character::isDigit)) {
+                    max = Math.max(max, Integer.parseInt(result.substring(1)));
+                }
+            }
+        }
+
+        return max;
+    }
+
+    String report() {
+        return "inlined " + inlined + " call sites" + System.lineSeparator() + report;
+    }
+
+    private static final class Inlining {
+
+        private final IRFunction function;
+        private final IRModule module;
+        private final Set<Instruction> copied;
+        private int register;
+        private int count;
+
+        Inlining(IRFunction function, IRModule module, Set<Instruction> copied, int register) {
+            this.function = function;
+            this.module = module;
+            this.copied = copied;
+            this.register = register;
+        }
+
+        // Blok z wywołaniem kończy się treścią bloku wejściowego funkcji, dalsze bloki funkcji idą za nim, a instrukcje
+        // po wywołaniu trafiają do nowego bloku, do którego skaczą wszystkie return
+        void inline(int blockIndex, int callIndex, Instruction call, IRFunction callee) {
+            final var block = function.blocks.get(blockIndex);
+            final var suffix = SUFFIX + count;
+            final var end = END + count;
+            count++;
+
+            final Map<String, String> values = new HashMap<>();
+            final Map<String, String> labels = new HashMap<>();
+
+            for (var k = 0; k < call.operands.length; k++) {
+                values.put(callee.parameters.get(k), call.operands[k]);
+            }
+
+            copyGlobals(callee, "@" + function.name + suffix + ".", values);
+
+            for (final var calleeBlock : callee.blocks) {
+                labels.put(calleeBlock.branchTarget(), calleeBlock == callee.entry() ? block.branchTarget() : calleeBlock.label + suffix);
+
+                for (final var instruction : calleeBlock.instructions) {
+                    if (instruction.result != null) {
+                        values.put(instruction.result, Registers.name(register++));
+                    }
+                }
+            }
+
+            final var instructions = block.instructions;
+            final List<Instruction> tail = new ArrayList<>(instructions.subList(callIndex + 1, instructions.size()));
+            instructions.subList(callIndex, instructions.size()).clear();
+
+            final List<String> returned = new ArrayList<>();
+            final List<String> returningBlocks = new ArrayList<>();
+            final List<BasicBlock> added = new ArrayList<>();
+            final var isSingleBlock = callee.blocks.size() == 1;
+
+            for (final var calleeBlock : callee.blocks) {
+                final var target = calleeBlock == callee.entry() ? block : new BasicBlock(labels.get(calleeBlock.branchTarget()));
+
+                for (final var instruction : calleeBlock.instructions) {
+                    if (instruction.opcode == Opcode.RET) {
+                        if (instruction.operands.length > 0) {
+                            returned.add(values.getOrDefault(instruction.operands[0], instruction.operands[0]));
+                            returningBlocks.add(target.branchTarget());
+                        }
+
+                        if (!isSingleBlock) {
+                            target.instructions.add(new Instruction(Opcode.BR, null, "void", "br label %#0",
+                                    Instruction.NONE, new String[]{end}, null));
+                        }
+
+                        continue;
+                    }
+
+                    final var copy = copy(instruction, values, labels);
+                    copied.add(copy);
+                    target.instructions.add(copy);
+                }
+
+                if (target != block) {
+                    added.add(target);
+                }
+            }
+
+            if (isSingleBlock) {
+                instructions.addAll(tail);
+            } else {
+                final var continuation = new BasicBlock(end);
+
+                if (call.result != null && returned.size() > 1) {
+                    continuation.instructions.add(Instruction.phi(call.result, call.type,
+                            returned.toArray(String[]::new), returningBlocks.toArray(String[]::new)));
+                }
+
+                continuation.instructions.addAll(tail);
+                added.add(continuation);
+                function.blocks.addAll(blockIndex + 1, added);
+                redirectPhis(continuation, block.branchTarget(), end);
+            }
+
+            // Jeden return: zamiast phi wynik wywołania to po prostu zwracana wartość
+            if (call.result != null && returned.size() == 1) {
+                for (final var current : function.blocks) {
+                    for (final var instruction : current.instructions) {
+                        instruction.replaceOperand(call.result, returned.getFirst());
+                    }
+                }
+            }
+        }
+
+        // Wywoływana funkcja może przestać być wypisywana razem ze swoimi stałymi, więc dostajemy własne kopie
+        // pod nazwami z przedrostkiem funkcji i numerem wstawienia (identyfikatory nie zawierają cyfr, więc są unikalne)
+        private void copyGlobals(IRFunction callee, String prefix, Map<String, String> values) {
+            final var text = callee.globals;
+
+            if (text.isEmpty()) {
+                return;
+            }
+
+            for (var start = 0; start < text.length(); start = text.indexOf("\n", start) + 1) {
+                final var name = text.substring(start, text.indexOf(" = ", start));
+                values.put(name, prefix + name.substring(1));
+            }
+
+            final var globals = IRModule.MAIN.equals(function.name) ? module.globals : function.globals;
+            globals.append(IRModule.GLOBAL_NAME.matcher(text)
+                    .replaceAll(match -> Matcher.quoteReplacement(values.getOrDefault(match.group(), match.group()))));
+        }
+
+        private static Instruction copy(Instruction instruction, Map<String, String> values, Map<String, String> labels) {
+            final var operands = new String[instruction.operands.length];
+            final var targets = new String[instruction.targets.length];
+
+            for (var k = 0; k < operands.length; k++) {
+                operands[k] = values.getOrDefault(instruction.operands[k], instruction.operands[k]);
+            }
+
+            for (var k = 0; k < targets.length; k++) {
+                targets[k] = labels.getOrDefault(instruction.targets[k], instruction.targets[k]);
+            }
+
+            final var result = instruction.result == null ? null : values.get(instruction.result);
+            return new Instruction(instruction.opcode, result, instruction.type, instruction.template, operands, targets, instruction.callee);
+        }
+
+        // Następniki bloku z wywołaniem są teraz następnikami bloku za nim, więc ich phi muszą wskazywać nowy blok
+        private void redirectPhis(BasicBlock continuation, String from, String to) {
+            final var terminator = continuation.terminator();
+
+            if (terminator == null) {
+                return;
+            }
+
+            for (final var successor : function.blocks) {
+                if (!List.of(terminator.targets).contains(successor.branchTarget())) {
+                    continue;
+                }
+
+                for (final var instruction : successor.instructions) {
+                    if (instruction.opcode != Opcode.PHI) {
+                        continue;
+                    }
+
+                    for (var k = 0; k < instruction.targets.length; k++) {
+                        if (instruction.targets[k].equals(from)) {
+                            instruction.targets[k] = to;
+                        }
+                    }
+                }
+            }
+        }
+
+    }
+
+}
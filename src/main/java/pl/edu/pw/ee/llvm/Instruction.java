@@ -0,0 +1,60 @@
+package pl.edu.pw.ee.llvm;
+
+// Szablon zawiera tekst instrukcji, w którym $n oznacza n-ty argument, a #n n-tą etykietę
+class Instruction {
+
+    static final String[] NONE = new String[0];
+    final Opcode opcode;
+    final String type;
+    final String template;
+    final String[] operands;
+    final String[] targets;
+    final String callee;
+    String result;
+
+    Instruction(Opcode opcode, String result, String type, String template, String[] operands, String[] targets, String callee) {
+        this.opcode = opcode;
+        this.result = result;
+        this.type = type;
+        this.template = template;
+        this.operands = operands;
+        this.targets = targets;
+        this.callee = callee;
+    }
+
+    static Instruction phi(String result, String type, String[] values, String[] labels) {
+        final var template = new StringBuilder("phi ").append(type);
+
+        for (var i = 0; i < values.length; i++) {
+            template.append(i == 0 ? " " : ", ").append("[ $").append(i).append(", %#").append(i).append(" ]");
+        }
+
+        return new Instruction(Opcode.PHI, result, type, template.toString(), values, labels, null);
+    }
+
+    boolean uses(String name) {
+        for (final var operand : operands) {
+            if (operand.equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    void replaceOperand(String name, String replacement) {
+        for (var i = 0; i < operands.length; i++) {
+            if (operands[i].equals(name)) {
+                operands[i] = replacement;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        final var text = new StringBuilder();
+        IRPrinter.print(this, text);
+        return text.toString();
+    }
+
+}
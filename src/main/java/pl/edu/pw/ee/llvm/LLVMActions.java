@@ -1,39 +1,53 @@
 package pl.edu.pw.ee.llvm;
 
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.TerminalNode;
 import pl.edu.pw.ee.HolyJavaBaseListener;
 import pl.edu.pw.ee.HolyJavaParser;
 
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 
 class LLVMActions extends HolyJavaBaseListener {
 
-    private static final Path OUTPUT_FILE_PATH = Path.of("output.ll");
     private static final int BUFFER_SIZE = 128;
-    private final Map<String, Value> globalVariables = new HashMap<>();
-    private final Map<String, Value> localVariables = new HashMap<>();
+    // Tyle tokenów bez wywołań i indeksowania liczymy od razu zwykłym and/or i1, bez skoków
+    private static final int MAX_CHEAP_OPERAND_COST = 8;
+    private final LLVMGenerator generator;
+    private final LLVMCache cache;
+    private final SymbolTable variables = new SymbolTable();
     private final Map<String, Function> functions = new HashMap<>();
     private final Map<String, Clazz> classes = new HashMap<>();
-    private final Stack<Value> stack = new Stack<>();
-    private final Stack<Array> arrayStack = new Stack<>();
-    private final Stack<Matrix> matrixStack = new Stack<>();
-    private final Stack<String> localLoopStack = new Stack<>();
-    private final Stack<String> localIfStack = new Stack<>();
+    private final Deque<Value> stack = new ArrayDeque<>();
+    private final Deque<Array> arrayStack = new ArrayDeque<>();
+    private final Deque<Matrix> matrixStack = new ArrayDeque<>();
+    private final Deque<String> localLoopStack = new ArrayDeque<>();
+    private final Deque<String> localIfStack = new ArrayDeque<>();
+    private final Deque<Branch> branchStack = new ArrayDeque<>();
+    private final Deque<LLVMGenerator.ShortCircuit> shortCircuits = new ArrayDeque<>();
+    private final boolean isFolding;
+    // Zmienne, których wartość w bieżącym miejscu programu jest znaną stałą
+    private Map<String, Constant> constants = new HashMap<>();
+    private Map<String, Constant> mainConstants;
     private Function currentFunction;
     private Clazz currentClass;
     private boolean isGlobalContext = true;
+    private String functionCacheKey;
+    // Klucze wpisów już zamkniętych funkcji; funkcja wywołująca może zawierać wstawioną treść wywoływanej
+    private final Map<String, String> cacheKeys = new HashMap<>();
+    private boolean isFunctionCached;
+    private EmitUnitEvent functionEvent;
+    private EmitUnitEvent classEvent;
 
-    @Override
-    public void exitProgramme(HolyJavaParser.ProgrammeContext context) {
-        try {
-            final var llvmCode = LLVMGenerator.generate();
-            Files.writeString(OUTPUT_FILE_PATH, llvmCode);
-        } catch (IOException ioException) {
-            throw new IllegalStateException(ioException);
-        }
+    LLVMActions(LLVMGenerator generator, LLVMCache cache, boolean isFolding) {
+        this.generator = generator;
+        this.cache = cache;
+        this.isFolding = isFolding;
+    }
+
+    boolean isFunctionBodyCached() {
+        return isFunctionCached;
     }
 
     @Override
@@ -49,27 +63,13 @@ class LLVMActions extends HolyJavaBaseListener {
         final var columnIndex = stack.pop();
         final var rowIndex = stack.pop();
 
-        if (rowIndex.type != PrimitiveType.INT && rowIndex.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "matrix row index must be int or long");
-        }
-
-        if (columnIndex.type != PrimitiveType.INT && columnIndex.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "matrix column index must be int or long");
-        }
-
-        if (rowIndex.type == PrimitiveType.INT) {
-            LLVMGenerator.ext(rowIndex);
-        }
-
-        if (columnIndex.type == PrimitiveType.INT) {
-            LLVMGenerator.ext(columnIndex);
-        }
-
         if (value.type != matrix.type) {
             error(context.getStart().getLine(), "matrix type mismatch");
         }
 
-        LLVMGenerator.assign_matrix_item(matrix, rowIndex.name(), columnIndex.name(), value);
+        final var row = index(rowIndex, matrix.length, "matrix row", context);
+        final var column = index(columnIndex, matrix.rowLength, "matrix column", context);
+        generator.assign_matrix_item(matrix, row.name(), column.name(), value);
     }
 
     @Override
@@ -84,32 +84,11 @@ class LLVMActions extends HolyJavaBaseListener {
         final var value = stack.pop();
         final var index = stack.pop();
 
-        if (index.type != PrimitiveType.INT && index.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "array index must be int or long");
-        }
-
-        if (index.type == PrimitiveType.INT) {
-            final var subIndex = index.name().substring(0, index.name().length() - 1);
-            final var subIndexValue = Integer.parseInt(subIndex);
-
-            if (subIndexValue > (array.length - 1) || subIndexValue < 0) {
-                error(context.getStart().getLine(), "array index out of range");
-            }
-
-            LLVMGenerator.ext(index);
-        }
-
-        final var indexValue = Integer.parseInt(index.name());
-
-        if (indexValue > (array.length - 1) || indexValue < 0) {
-            error(context.getStart().getLine(), "array index out of range");
-        }
-
         if (value.type != array.type) {
             error(context.getStart().getLine(), "array type mismatch");
         }
 
-        LLVMGenerator.assign_array_item(array, index.name(), value);
+        generator.assign_array_item(array, index(index, array.length, "array", context).name(), value);
     }
 
     @Override
@@ -119,29 +98,31 @@ class LLVMActions extends HolyJavaBaseListener {
 
         if (isVariableUndefined(ID)) {
             setVariable(ID, variable);
-            LLVMGenerator.declare(ID, variable.type, isGlobalContext);
+            generator.declare(ID, variable.type, isGlobalContext);
         }
 
-        LLVMGenerator.assign(ID, isGlobalContext, variable);
+        generator.assign(ID, isGlobalContext, variable);
+
+        if (isFolding && variable instanceof Constant constant && constant.type == getVariable(ID, context).type) {
+            constants.put(ID, constant);
+        } else {
+            constants.remove(ID);
+        }
     }
 
     @Override
     public void enterMatrix(HolyJavaParser.MatrixContext context) {
-        final var id = "mat" + (LLVMGenerator.mat - 1);
+        final var id = "mat" + (generator.mat - 1);
         final var matrix = new Matrix(id, PrimitiveType.UNKNOWN, 0, isGlobalContext);
         matrixStack.push(matrix);
-        LLVMGenerator.mat++;
+        generator.mat++;
     }
 
     @Override
     public void exitMatrix(HolyJavaParser.MatrixContext context) {
         final var matrix = matrixStack.pop();
-        LLVMGenerator.declare(matrix);
-
-        for (var index = 0; index < matrix.length; index++) {
-            final var row = matrix.rows.get(index);
-            LLVMGenerator.assign_matrix_row(matrix, String.valueOf(index), row);
-        }
+        generator.declare(matrix);
+        generator.initialize(matrix);
 
         final var id = context.ID().getText();
         setVariable(id, matrix);
@@ -165,12 +146,22 @@ class LLVMActions extends HolyJavaBaseListener {
         final var value = getVariable(ID, context);
 
         if (value.type == PrimitiveType.STRING) {
-            final var loadedValue = LLVMGenerator.load(ID, value, isIdGlobal(ID, context));
-            LLVMGenerator.printf(loadedValue);
+            final var loadedValue = generator.load(ID, value, isIdGlobal(ID, context));
+            generator.printf(loadedValue);
             return;
         }
 
-        LLVMGenerator.printf(value);
+        if (!(value.type instanceof PrimitiveType)) {
+            error(context.getStart().getLine(), "cannot print object " + ID);
+        }
+
+        if (value instanceof Parameter || value instanceof Array || value instanceof Matrix) {
+            generator.printf(value);
+            return;
+        }
+
+        // Drukujemy bieżącą wartość zmiennej, a nie wyrażenie z jej pierwszego przypisania
+        generator.printf(readVariable(ID, value, context));
     }
 
     @Override
@@ -178,7 +169,8 @@ class LLVMActions extends HolyJavaBaseListener {
         final var ID = context.ID().getText();
         final var value = new Value(ID, PrimitiveType.STRING, BUFFER_SIZE - 1, isGlobalContext);
         setVariable(ID, value);
-        LLVMGenerator.scanf(value);
+        constants.remove(ID);
+        generator.scanf(value);
     }
 
     @Override
@@ -194,7 +186,7 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "return type mismatch");
         }
 
-        LLVMGenerator.ret(value);
+        generator.ret(value);
     }
 
     @Override
@@ -219,7 +211,7 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "field type mismatch");
         }
 
-        LLVMGenerator.assignField(clazz, field, objectID, value);
+        generator.assignField(clazz, field, objectID, value);
     }
 
     @Override
@@ -232,62 +224,79 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "unknown class " + classId);
         }
 
-        LLVMGenerator.newObject(id, clazz);
-        setVariable(id, new Value(id, new CustomType(classId), 0, false));
+        generator.newObject(id, clazz);
+        setVariable(id, new Value(id, clazz.type, 0, false));
     }
 
     @Override
     public void enterWhiledef(HolyJavaParser.WhiledefContext context) {
-        var val = localLoopStack.pop();
-        localLoopStack.push(val);
         var condition = stack.pop();
         if (condition.type != PrimitiveType.BOOLEAN) {
             error(context.getStart().getLine(), "Boolean type condition mismatch");
         }
-        LLVMGenerator.write_loop_start_label();
-        LLVMGenerator.evaluate_loop_condition(condition.name);
+        generator.write_loop_start_label();
+        generator.evaluate_loop_condition(condition);
 
+        // Ciało pętli wykonuje się wielokrotnie, więc zmienne w nim przypisywane nie mają w nim stałej wartości
+        final Set<String> assigned = new HashSet<>();
+        collectAssigned(context, assigned);
+        constants.keySet().removeAll(assigned);
+        branchStack.push(new Branch(condition, new HashMap<>(constants)));
     }
 
     @Override
     public void exitWhiledef(HolyJavaParser.WhiledefContext context) {
         String id = localLoopStack.pop();
-        LLVMGenerator.load(id, new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN), true);
-        LLVMGenerator.evaluate_loop();
-        LLVMGenerator.write_loop_end_label(); // End of the loop
+        final var known = constants.get(id);
+        // Zmienna warunku w funkcji jest lokalna, więc pętle w funkcjach czytają ją z właściwego miejsca
+        final var isGlobal = isVariableUndefined(id) || variables.isGlobal(id);
+        final var condition = known != null ? known : generator.load(id, generator.lastResult(PrimitiveType.BOOLEAN), isGlobal);
+        generator.evaluate_loop(condition);
+        generator.write_loop_end_label(); // End of the loop
+        constants = branchStack.pop().constants();
     }
 
     @Override
     public void enterIfdef(HolyJavaParser.IfdefContext context) {
-        var value = localIfStack.pop();
-        localIfStack.push(value);
         var condition = stack.pop();
 
         if (condition.type != PrimitiveType.BOOLEAN) {
             error(context.getStart().getLine(), "Boolean type condition mismatch");
         }
-        LLVMGenerator.write_if_start_label();
-        LLVMGenerator.evaluate_if_condition(condition.name);
+        generator.write_if_start_label();
+        generator.evaluate_if_condition(condition);
+        branchStack.push(new Branch(condition, new HashMap<>(constants)));
     }
 
     @Override
     public void exitIfdef(HolyJavaParser.IfdefContext context) {
-        LLVMGenerator.jump_to_if_end();
-        LLVMGenerator.write_if_end_label();
+        generator.jump_to_if_end();
+        generator.write_if_end_label();
+        mergeConstants(branchStack.pop(), true);
     }
 
     @Override
     public void enterElsedef(HolyJavaParser.ElsedefContext context) {
-        var id = localIfStack.pop();
-        LLVMGenerator.load(id, new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN), true);
-        LLVMGenerator.write_else_start();
-        LLVMGenerator.evaluate_else();
+        var id = localIfStack.peek();
+        final var known = constants.get(id);
+        // Zmienna warunku w funkcji jest lokalna, więc pętle w funkcjach czytają ją z właściwego miejsca
+        final var isGlobal = isVariableUndefined(id) || variables.isGlobal(id);
+        final var condition = known != null ? known : generator.load(id, generator.lastResult(PrimitiveType.BOOLEAN), isGlobal);
+        generator.write_else_start();
+        generator.evaluate_else(condition);
+        branchStack.push(new Branch(condition, new HashMap<>(constants)));
     }
 
     @Override
     public void exitElsedef(HolyJavaParser.ElsedefContext context) {
-        LLVMGenerator.jump_to_else_end();
-        LLVMGenerator.write_else_end_label();
+        generator.jump_to_else_end();
+        generator.write_else_end_label();
+        mergeConstants(branchStack.pop(), false);
+    }
+
+    @Override
+    public void exitIfelse(HolyJavaParser.IfelseContext context) {
+        localIfStack.pop();
     }
 
     @Override
@@ -304,6 +313,8 @@ class LLVMActions extends HolyJavaBaseListener {
 
     @Override
     public void enterClassdef(HolyJavaParser.ClassdefContext context) {
+        classEvent = new EmitUnitEvent();
+        classEvent.begin();
         final var id = context.ID().getText();
         final var clazz = new Clazz(id);
         currentClass = clazz;
@@ -314,9 +325,12 @@ class LLVMActions extends HolyJavaBaseListener {
     public void exitClassdef(HolyJavaParser.ClassdefContext context) {
         final var id = context.ID().getText();
         final var clazz = classes.get(id);
-        LLVMGenerator.defineClass(clazz);
-        LLVMGenerator.commit();
+        generator.defineClass(clazz);
+        generator.commit();
         currentClass = null;
+        classEvent.kind = "class";
+        classEvent.name = id;
+        classEvent.commit();
     }
 
     @Override
@@ -331,26 +345,46 @@ class LLVMActions extends HolyJavaBaseListener {
         final var typeKeyword = context.type().getText();
         final var type = PrimitiveType.fromKeyword(typeKeyword);
         final var field = new Value(id, type);
-        currentClass.fields.put(id, field);
+        currentClass.addField(id, field);
     }
 
     @Override
     public void enterFundef(HolyJavaParser.FundefContext context) {
+        functionEvent = new EmitUnitEvent();
+        functionEvent.begin();
         isGlobalContext = false;
-        LLVMGenerator.setMainContext(false);
+        variables.enterScope();
+        // Funkcja może zostać wywołana w dowolnym miejscu programu, więc nie zna stałych z main
+        mainConstants = constants;
+        constants = new HashMap<>();
+        generator.setMainContext(false);
     }
 
     @Override
     public void exitFundef(HolyJavaParser.FundefContext context) {
-        LLVMGenerator.closeFunction(currentFunction);
+        if (!isFunctionCached) {
+            generator.closeFunction(currentFunction);
+        }
+
+        if (functionCacheKey != null && !isFunctionCached) {
+            cache.store(functionCacheKey, generator.fragment());
+        }
+
         isGlobalContext = true;
 
         if (currentClass == null) {
-            LLVMGenerator.commit();
+            generator.commit();
         }
 
-        LLVMGenerator.setMainContext(true);
-        localVariables.clear();
+        functionEvent.kind = currentClass == null ? "function" : "method";
+        functionEvent.name = currentFunction.name;
+        functionEvent.cached = isFunctionCached;
+        functionEvent.commit();
+        functionCacheKey = null;
+        isFunctionCached = false;
+        generator.setMainContext(true);
+        variables.exitScope();
+        constants = mainConstants;
 
         if (context.getParent() instanceof HolyJavaParser.MethoddefContext) {
             return;
@@ -365,11 +399,17 @@ class LLVMActions extends HolyJavaBaseListener {
         final var returnTypeKeyword = context.type() == null ? context.VOID().getText() : context.type().getText();
         final var returnType = PrimitiveType.fromKeyword(returnTypeKeyword);
         final var function = currentClass == null ? new Function(id, returnType) : new Function(currentClass.name + "_" + id, returnType);
-        functions.put(currentClass == null ? id : currentClass.name + "_" + id, function);
+
+        if (currentClass == null) {
+            functions.put(id, function);
+        } else {
+            currentClass.addMethod(id, function);
+        }
+
         currentFunction = function;
 
         if (currentClass != null) {
-            final var thisParameter = new Parameter(Parameter.THIS_PARAM_NAME, new CustomType(currentClass.name));
+            final var thisParameter = new Parameter(Parameter.THIS_PARAM_NAME, currentClass.type);
             currentFunction.parameters.add(thisParameter);
             setVariable(Parameter.THIS_PARAM_NAME, thisParameter);
         }
@@ -377,7 +417,25 @@ class LLVMActions extends HolyJavaBaseListener {
 
     @Override
     public void exitFundefheader(HolyJavaParser.FundefheaderContext context) {
-        LLVMGenerator.defineFunction(currentFunction);
+        if (cache != null) {
+            final var function = context.getParent();
+            functionCacheKey = cache.key(currentFunction.name, sourceText(function), dependencySignature(function));
+            cacheKeys.put(currentFunction.name, functionCacheKey);
+            final var fragment = cache.load(functionCacheKey);
+
+            if (fragment != null && !generator.isInlinable(fragment)) {
+                generator.emitFragment(currentFunction.name, fragment);
+                isFunctionCached = true;
+                return;
+            }
+
+            // Małą funkcję kompilujemy od nowa, bo gotowego tekstu nie da się wstawić w miejsca wywołań
+            if (fragment != null) {
+                functionCacheKey = null;
+            }
+        }
+
+        generator.defineFunction(currentFunction);
     }
 
     @Override
@@ -397,7 +455,7 @@ class LLVMActions extends HolyJavaBaseListener {
         final var object = getVariable(objectID, context);
 
         final var clazz = classes.get(((CustomType) object.type).name);
-        final var method = functions.get(clazz.name + "_" + methodID);
+        final var method = clazz.getMethod(methodID);
 
         if (method == null) {
             error(context.getStart().getLine(), "unknown method " + methodID);
@@ -407,7 +465,7 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "method parameter count mismatch");
         }
 
-        final List<Value> arguments = new LinkedList<>();
+        final List<Value> arguments = new ArrayList<>(method.parameters.size());
 
         for (var i = 0; i < method.parameters.size(); i++) {
             final var parameter = method.parameters.get(i);
@@ -430,10 +488,10 @@ class LLVMActions extends HolyJavaBaseListener {
             arguments.add(argument);
         }
 
-        LLVMGenerator.callFunction(method, arguments);
+        generator.callFunction(method, arguments);
 
         if (method.returnType != PrimitiveType.VOID) {
-            final var result = new Value(String.valueOf(LLVMGenerator.register - 1), method.returnType);
+            final var result = generator.lastResult(method.returnType);
             stack.push(result);
         }
     }
@@ -451,7 +509,7 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "function parameter count mismatch");
         }
 
-        final List<Value> arguments = new LinkedList<>();
+        final List<Value> arguments = new ArrayList<>(function.parameters.size());
 
         for (var i = 0; i < function.parameters.size(); i++) {
             final var parameter = function.parameters.get(i);
@@ -464,10 +522,10 @@ class LLVMActions extends HolyJavaBaseListener {
             arguments.add(argument);
         }
 
-        LLVMGenerator.callFunction(function, arguments);
+        generator.callFunction(function, arguments);
 
         if (function.returnType != PrimitiveType.VOID) {
-            final var result = new Value(String.valueOf(LLVMGenerator.register - 1), function.returnType);
+            final var result = generator.lastResult(function.returnType);
             stack.push(result);
         }
     }
@@ -476,7 +534,7 @@ class LLVMActions extends HolyJavaBaseListener {
     public void exitMatrixitem(HolyJavaParser.MatrixitemContext context) {
         final var array = (Array) stack.pop();
         final var matrix = matrixStack.peek();
-        matrix.rows.add(array);
+        matrix.values.addAll(array.values);
         matrix.length++;
 
         if (matrix.type == PrimitiveType.UNKNOWN) {
@@ -496,25 +554,37 @@ class LLVMActions extends HolyJavaBaseListener {
 
     @Override
     public void enterArraydef(HolyJavaParser.ArraydefContext context) {
-        final var id = "arr" + (LLVMGenerator.arr - 1);
+        // Wiersz macierzy nie jest osobną tablicą, jego wartości trafiają prosto do bloku macierzy
+        if (isMatrixRow(context)) {
+            arrayStack.push(new Array(null, PrimitiveType.UNKNOWN, 0, isGlobalContext));
+            return;
+        }
+
+        final var id = "arr" + (generator.arr - 1);
         final var array = new Array(id, PrimitiveType.UNKNOWN, 0, isGlobalContext);
         arrayStack.push(array);
-        LLVMGenerator.arr++;
+        generator.arr++;
     }
 
     @Override
     public void exitArraydef(HolyJavaParser.ArraydefContext context) {
         final var array = arrayStack.pop();
-        LLVMGenerator.declare(array);
 
-        for (var index = 0; index < array.length; index++) {
-            final var value = array.values.get(index);
-            LLVMGenerator.assign_array_item(array, String.valueOf(index), value);
+        if (isMatrixRow(context)) {
+            stack.push(array);
+            return;
         }
 
+        generator.declare(array);
+        generator.initialize(array);
+
         stack.push(array);
     }
 
+    private static boolean isMatrixRow(HolyJavaParser.ArraydefContext context) {
+        return context.getParent() instanceof HolyJavaParser.MatrixitemContext;
+    }
+
     @Override
     public void exitArrayitem(HolyJavaParser.ArrayitemContext context) {
         final var value = stack.pop();
@@ -541,8 +611,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "OR type mismatch");
         }
 
-        LLVMGenerator.or(value2, value1);
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        if (!isCheapOperand(context.exprComp())) {
+            stack.push(generator.endShortCircuit(shortCircuits.pop(), value1));
+            return;
+        }
+
+        if (pushFolded(ConstantFolder.or(value2, value1))) {
+            return;
+        }
+
+        generator.or(value2, value1);
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -558,15 +637,19 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "LESS type invalid");
         }
 
+        if (pushFolded(ConstantFolder.compare(isFloating(value1) ? "olt" : "ult", value2, value1))) {
+            return;
+        }
+
         if (value1.type == PrimitiveType.INT || value1.type == PrimitiveType.LONG) {
-            LLVMGenerator.less_i(value1, value2);
+            generator.less_i(value1, value2);
         }
 
         if (value1.type == PrimitiveType.DOUBLE || value1.type == PrimitiveType.FLOAT) {
-            LLVMGenerator.less_f(value1, value2);
+            generator.less_f(value1, value2);
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -582,15 +665,19 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "GREATER type invalid");
         }
 
+        if (pushFolded(ConstantFolder.compare(isFloating(value1) ? "ogt" : "ugt", value2, value1))) {
+            return;
+        }
+
         if (value1.type == PrimitiveType.INT || value1.type == PrimitiveType.LONG) {
-            LLVMGenerator.greater_i(value1, value2);
+            generator.greater_i(value1, value2);
         }
 
         if (value1.type == PrimitiveType.DOUBLE || value1.type == PrimitiveType.FLOAT) {
-            LLVMGenerator.greater_f(value1, value2);
+            generator.greater_f(value1, value2);
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -602,19 +689,23 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "EQUAL type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.compare(isFloating(value1) ? "oeq" : "eq", value2, value1))) {
+            return;
+        }
+
         if (value1.type == PrimitiveType.INT || value1.type == PrimitiveType.BOOLEAN || value1.type == PrimitiveType.LONG) {
-            LLVMGenerator.equal_i(value1, value2);
+            generator.equal_i(value1, value2);
         }
 
         if (value1.type == PrimitiveType.DOUBLE || value1.type == PrimitiveType.FLOAT) {
-            LLVMGenerator.equal_f(value1, value2);
+            generator.equal_f(value1, value2);
         }
 
         if (value1.type == PrimitiveType.STRING) {
-            LLVMGenerator.equal_s(value1, value2);
+            generator.equal_s(value1, value2);
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -626,19 +717,23 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "NOT_EQUAL type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.compare(isFloating(value1) ? "une" : "ne", value2, value1))) {
+            return;
+        }
+
         if (value1.type == PrimitiveType.INT || value1.type == PrimitiveType.BOOLEAN || value1.type == PrimitiveType.LONG) {
-            LLVMGenerator.not_equal_i(value1, value2);
+            generator.not_equal_i(value1, value2);
         }
 
         if (value1.type == PrimitiveType.DOUBLE || value1.type == PrimitiveType.FLOAT) {
-            LLVMGenerator.not_equal_f(value1, value2);
+            generator.not_equal_f(value1, value2);
         }
 
         if (value1.type == PrimitiveType.STRING) {
-            LLVMGenerator.not_equal_s(value1, value2);
+            generator.not_equal_s(value1, value2);
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -650,8 +745,24 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "XOR type mismatch");
         }
 
-        LLVMGenerator.xor(value1, value2);
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        if (pushFolded(ConstantFolder.xor(value2, value1))) {
+            return;
+        }
+
+        generator.xor(value1, value2);
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
+    }
+
+    // Operator & i | odwiedzamy po policzeniu lewego argumentu, a przed prawym, więc tu otwieramy blok prawego argumentu
+    @Override
+    public void visitTerminal(TerminalNode node) {
+        final var parent = node.getParent();
+
+        if (parent instanceof HolyJavaParser.AndContext and && node == and.AND() && !isCheapOperand(and.expr3())) {
+            shortCircuits.push(generator.beginShortCircuit(stack.peek(), true));
+        } else if (parent instanceof HolyJavaParser.OrContext or && node == or.OR() && !isCheapOperand(or.exprComp())) {
+            shortCircuits.push(generator.beginShortCircuit(stack.peek(), false));
+        }
     }
 
     @Override
@@ -663,8 +774,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "AND type mismatch");
         }
 
-        LLVMGenerator.and(value2, value1);
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        if (!isCheapOperand(context.expr3())) {
+            stack.push(generator.endShortCircuit(shortCircuits.pop(), value1));
+            return;
+        }
+
+        if (pushFolded(ConstantFolder.and(value2, value1))) {
+            return;
+        }
+
+        generator.and(value2, value1);
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
@@ -676,7 +796,11 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "add type mismatch");
         }
 
-        final var result = LLVMGenerator.add(value1, value2);
+        if (pushFolded(ConstantFolder.arithmetic(Opcode.ADD, value2, value1))) {
+            return;
+        }
+
+        final var result = generator.add(value1, value2);
         stack.push(result);
     }
 
@@ -689,7 +813,11 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "sub type mismatch");
         }
 
-        final var result = LLVMGenerator.sub(value1, value2);
+        if (pushFolded(ConstantFolder.arithmetic(Opcode.SUB, value2, value1))) {
+            return;
+        }
+
+        final var result = generator.sub(value1, value2);
         stack.push(result);
     }
 
@@ -702,7 +830,11 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "div type mismatch");
         }
 
-        final var result = LLVMGenerator.div(value1, value2);
+        if (pushFolded(ConstantFolder.arithmetic(Opcode.DIV, value2, value1))) {
+            return;
+        }
+
+        final var result = generator.div(value1, value2);
         stack.push(result);
     }
 
@@ -715,7 +847,11 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "mult type mismatch");
         }
 
-        final var result = LLVMGenerator.mult(value1, value2);
+        if (pushFolded(ConstantFolder.arithmetic(Opcode.MUL, value2, value1))) {
+            return;
+        }
+
+        final var result = generator.mult(value1, value2);
         stack.push(result);
     }
 
@@ -727,15 +863,20 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "NEG type mismatch");
         }
 
-        LLVMGenerator.neg(value);
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.BOOLEAN));
+        if (pushFolded(ConstantFolder.not(value))) {
+            return;
+        }
+
+        generator.neg(value);
+        stack.push(generator.lastResult(PrimitiveType.BOOLEAN));
     }
 
     @Override
     public void exitTofloat(HolyJavaParser.TofloatContext context) {
         final var value = stack.pop();
 
-        if (value.type == PrimitiveType.DOUBLE) {
+        if (value.type == PrimitiveType.FLOAT) {
+            stack.push(value);
             return;
         }
 
@@ -743,13 +884,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.cast(value, PrimitiveType.FLOAT))) {
+            return;
+        }
+
         switch (value.type) {
-            case PrimitiveType.INT, PrimitiveType.LONG -> LLVMGenerator.sitofp(value, PrimitiveType.FLOAT);
-            case PrimitiveType.FLOAT -> LLVMGenerator.trunc(value);
+            case PrimitiveType.INT, PrimitiveType.LONG -> generator.sitofp(value, PrimitiveType.FLOAT);
+            case PrimitiveType.DOUBLE -> generator.trunc(value);
             default -> error(context.getStart().getLine(), "type mismatch");
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.FLOAT));
+        stack.push(generator.lastResult(PrimitiveType.FLOAT));
     }
 
     @Override
@@ -757,6 +902,7 @@ class LLVMActions extends HolyJavaBaseListener {
         final var value = stack.pop();
 
         if (value.type == PrimitiveType.INT) {
+            stack.push(value);
             return;
         }
 
@@ -764,13 +910,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.cast(value, PrimitiveType.INT))) {
+            return;
+        }
+
         switch (value.type) {
-            case PrimitiveType.LONG -> LLVMGenerator.trunc(value);
-            case PrimitiveType.FLOAT, PrimitiveType.DOUBLE -> LLVMGenerator.fptosi(value, PrimitiveType.INT);
+            case PrimitiveType.LONG -> generator.trunc(value);
+            case PrimitiveType.FLOAT, PrimitiveType.DOUBLE -> generator.fptosi(value, PrimitiveType.INT);
             default -> error(context.getStart().getLine(), "type mismatch");
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.INT));
+        stack.push(generator.lastResult(PrimitiveType.INT));
     }
 
     @Override
@@ -778,6 +928,7 @@ class LLVMActions extends HolyJavaBaseListener {
         final var value = stack.pop();
 
         if (value.type == PrimitiveType.LONG) {
+            stack.push(value);
             return;
         }
 
@@ -785,13 +936,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.cast(value, PrimitiveType.LONG))) {
+            return;
+        }
+
         switch (value.type) {
-            case PrimitiveType.INT -> LLVMGenerator.ext(value);
-            case PrimitiveType.FLOAT, PrimitiveType.DOUBLE -> LLVMGenerator.fptosi(value, PrimitiveType.LONG);
+            case PrimitiveType.INT -> generator.ext(value);
+            case PrimitiveType.FLOAT, PrimitiveType.DOUBLE -> generator.fptosi(value, PrimitiveType.LONG);
             default -> error(context.getStart().getLine(), "type mismatch");
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.LONG));
+        stack.push(generator.lastResult(PrimitiveType.LONG));
     }
 
     @Override
@@ -799,6 +954,7 @@ class LLVMActions extends HolyJavaBaseListener {
         final var value = stack.pop();
 
         if (value.type == PrimitiveType.DOUBLE) {
+            stack.push(value);
             return;
         }
 
@@ -806,13 +962,17 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "type mismatch");
         }
 
+        if (pushFolded(ConstantFolder.cast(value, PrimitiveType.DOUBLE))) {
+            return;
+        }
+
         switch (value.type) {
-            case PrimitiveType.INT, PrimitiveType.LONG -> LLVMGenerator.sitofp(value, PrimitiveType.DOUBLE);
-            case PrimitiveType.FLOAT -> LLVMGenerator.ext(value);
+            case PrimitiveType.INT, PrimitiveType.LONG -> generator.sitofp(value, PrimitiveType.DOUBLE);
+            case PrimitiveType.FLOAT -> generator.ext(value);
             default -> error(context.getStart().getLine(), "type mismatch");
         }
 
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), PrimitiveType.DOUBLE));
+        stack.push(generator.lastResult(PrimitiveType.DOUBLE));
     }
 
     @Override
@@ -831,9 +991,9 @@ class LLVMActions extends HolyJavaBaseListener {
 
         final var fieldType = clazz.fields.get(fieldID).type;
 
-        LLVMGenerator.readField(clazz, field, fieldType, objectID);
+        generator.readField(clazz, field, fieldType, objectID);
 
-        final var value = new Value(String.valueOf(LLVMGenerator.register - 1), fieldType);
+        final var value = generator.lastResult(fieldType);
         stack.push(value);
     }
 
@@ -847,25 +1007,10 @@ class LLVMActions extends HolyJavaBaseListener {
 
         final var columnIndex = stack.pop();
         final var rowIndex = stack.pop();
-
-        if (rowIndex.type != PrimitiveType.INT && rowIndex.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "matrix row index must be int or long");
-        }
-
-        if (columnIndex.type != PrimitiveType.INT && columnIndex.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "matrix column index must be int or long");
-        }
-
-        if (rowIndex.type == PrimitiveType.INT) {
-            LLVMGenerator.ext(rowIndex);
-        }
-
-        if (columnIndex.type == PrimitiveType.INT) {
-            LLVMGenerator.ext(columnIndex);
-        }
-
-        LLVMGenerator.load_matrix_value(matrix, rowIndex.name(), columnIndex.name());
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), matrix.type));
+        final var row = index(rowIndex, matrix.length, "matrix row", context);
+        final var column = index(columnIndex, matrix.rowLength, "matrix column", context);
+        generator.load_matrix_value(matrix, row.name(), column.name());
+        stack.push(generator.lastResult(matrix.type));
     }
 
     @Override
@@ -876,31 +1021,9 @@ class LLVMActions extends HolyJavaBaseListener {
             error(context.getStart().getLine(), "unknown array " + context.ID().getText());
         }
 
-        final var index = stack.pop();
-
-        if (index.type != PrimitiveType.INT && index.type != PrimitiveType.LONG) {
-            error(context.getStart().getLine(), "array index must be int or long");
-        }
-
-        if (index.type == PrimitiveType.INT) {
-            final var subIndex = index.name().substring(0, index.name().length() - 1);
-            final var subIndexValue = Integer.parseInt(subIndex);
-
-            if (subIndexValue > (array.length - 1) || subIndexValue < 0) {
-                error(context.getStart().getLine(), "array index out of range");
-            }
-
-            LLVMGenerator.ext(index);
-        }
-
-        final var indexValue = Integer.parseInt(index.name());
-
-        if (indexValue > (array.length - 1) || indexValue < 0) {
-            error(context.getStart().getLine(), "array index out of range");
-        }
-
-        LLVMGenerator.load_array_value(array, index.name());
-        stack.push(new Value(String.valueOf(LLVMGenerator.register - 1), array.type));
+        final var index = index(stack.pop(), array.length, "array", context);
+        generator.load_array_value(array, index.name());
+        stack.push(generator.lastResult(array.type));
     }
 
     @Override
@@ -918,8 +1041,7 @@ class LLVMActions extends HolyJavaBaseListener {
             return;
         }
 
-        final var result = LLVMGenerator.load(ID, value, isIdGlobal(ID, context));
-        stack.push(result);
+        stack.push(readVariable(ID, value, context));
     }
 
     @Override
@@ -949,76 +1071,223 @@ class LLVMActions extends HolyJavaBaseListener {
     @Override
     public void exitString(HolyJavaParser.StringContext context) {
         final var tmp = context.STRING().getText();
-        final var content = tmp.substring(1, tmp.length() - 1);
-        LLVMGenerator.constant_string(content);
-        final var id = "str" + (LLVMGenerator.str - 1);
-        stack.push(new Value(id, PrimitiveType.STRING, content.length(), isGlobalContext));
+        stack.push(generator.constant_string(tmp.substring(1, tmp.length() - 1)));
     }
 
     @Override
     public void exitBool(HolyJavaParser.BoolContext context) {
-        if (Objects.equals(context.BOOL().getText(), "true")) {
-            stack.push(new Constant("1", PrimitiveType.BOOLEAN));
-        } else {
-            stack.push(new Constant("0", PrimitiveType.BOOLEAN));
+        stack.push(ConstantFolder.bool(context.BOOL().getSymbol().getText().equals("true")));
+    }
+
+    private Value readVariable(String id, Value variable, ParserRuleContext context) {
+        final var constant = constants.get(id);
+        return constant != null ? constant : generator.load(id, variable, isIdGlobal(id, context));
+    }
+
+    // Wynik policzony w czasie kompilacji trafia na stos zamiast instrukcji
+    private boolean pushFolded(Value folded) {
+        if (!isFolding || folded == null) {
+            return false;
         }
+
+        stack.push(folded);
+        return true;
     }
 
-    private Value getVariable(String id, ParserRuleContext context) {
-        if (isGlobalContext) {
-            final var variable = globalVariables.get(id);
+    private static boolean isFloating(Value value) {
+        return value.type == PrimitiveType.FLOAT || value.type == PrimitiveType.DOUBLE;
+    }
 
-            if (variable != null) {
-                return variable;
+    // Po gałęzi zostają tylko stałe zgodne na obu ścieżkach, chyba że warunek był znany i wiadomo, którędy poszło wykonanie
+    private void mergeConstants(Branch branch, boolean isTakenWhenTrue) {
+        if (branch.condition() instanceof Constant constant) {
+            if (ConstantFolder.isTrue(constant) != isTakenWhenTrue) {
+                constants = branch.constants();
             }
+
+            return;
         }
 
-        final var variable = localVariables.get(id);
+        constants.entrySet().removeIf(entry -> !isSameConstant(entry.getValue(), branch.constants().get(entry.getKey())));
+    }
 
-        if (variable == null) {
-            final var globalVariable = globalVariables.get(id);
+    private static boolean isSameConstant(Constant constant, Constant other) {
+        return other != null && constant.type == other.type && constant.name().equals(other.name());
+    }
 
-            if (globalVariable != null) {
-                return globalVariable;
-            }
+    private static boolean isCheapOperand(ParseTree tree) {
+        return operandCost(tree) <= MAX_CHEAP_OPERAND_COST;
+    }
+
+    // Wywołania mogą mieć skutki uboczne, a indeksowanie tablic może się nie powieść, więc takich argumentów nie liczymy na zapas
+    private static int operandCost(ParseTree tree) {
+        if (tree instanceof HolyJavaParser.FuncallContext || tree instanceof HolyJavaParser.MethodcallContext
+                || tree instanceof HolyJavaParser.ArrayvalueContext || tree instanceof HolyJavaParser.MatrixvalueContext) {
+            return MAX_CHEAP_OPERAND_COST + 1;
+        }
 
+        if (tree instanceof TerminalNode) {
+            return 1;
+        }
+
+        var cost = 0;
+
+        for (var i = 0; i < tree.getChildCount() && cost <= MAX_CHEAP_OPERAND_COST; i++) {
+            cost += operandCost(tree.getChild(i));
+        }
+
+        return cost;
+    }
+
+    private static void collectAssigned(ParseTree tree, Set<String> assigned) {
+        if (tree instanceof HolyJavaParser.AssignContext assign) {
+            assigned.add(assign.ID().getText());
+        } else if (tree instanceof HolyJavaParser.ReadContext read) {
+            assigned.add(read.ID().getText());
+        }
+
+        for (var i = 0; i < tree.getChildCount(); i++) {
+            collectAssigned(tree.getChild(i), assigned);
+        }
+    }
+
+    private Value getVariable(String id, ParserRuleContext context) {
+        final var variable = variables.resolve(id);
+
+        if (variable == null) {
             error(context.getStart().getLine(), "unknown variable " + id);
         }
 
         return variable;
     }
 
-    private void setVariable(String id, Value value) {
-        if (isGlobalContext) {
-            globalVariables.put(id, value);
-        } else {
-            localVariables.put(id, value);
+    // Indeks jako i64: stały sprawdzamy przy kompilacji, wyliczany sprawdza program w czasie działania
+    private Value index(Value index, int length, String kind, ParserRuleContext context) {
+        if (index.type != PrimitiveType.INT && index.type != PrimitiveType.LONG) {
+            error(context.getStart().getLine(), kind + " index must be int or long");
+        }
+
+        if (index instanceof Constant constant) {
+            final var value = Long.parseLong(constant.name());
+
+            if (value < 0 || value >= length) {
+                error(context.getStart().getLine(), kind + " index out of range");
+            }
+
+            return new Constant(constant.name(), PrimitiveType.LONG);
         }
+
+        var wideIndex = index;
+
+        if (index.type == PrimitiveType.INT) {
+            generator.ext(index);
+            wideIndex = generator.lastResult(PrimitiveType.LONG);
+        }
+
+        generator.checkBounds(wideIndex, length);
+        return wideIndex;
+    }
+
+    private void setVariable(String id, Value value) {
+        variables.define(id, value);
     }
 
     private boolean isVariableUndefined(String id) {
-        if (isGlobalContext) {
-            return !globalVariables.containsKey(id);
+        return !variables.isDefined(id);
+    }
+
+    private boolean isIdGlobal(String id, ParserRuleContext context) {
+        if (isVariableUndefined(id)) {
+            error(context.getStart().getLine(), "unknown variable " + id);
         }
 
-        return !localVariables.containsKey(id) && !globalVariables.containsKey(id);
+        return variables.isGlobal(id);
     }
 
-    private boolean isIdGlobal(String id, ParserRuleContext context) {
-        if (globalVariables.containsKey(id) && isGlobalContext) {
-            return true;
+    private static String sourceText(ParserRuleContext context) {
+        final var input = context.getStart().getInputStream();
+        return input.getText(Interval.of(context.getStart().getStartIndex(), context.getStop().getStopIndex()));
+    }
+
+    private String dependencySignature(ParseTree functionTree) {
+        final Set<String> identifiers = new TreeSet<>();
+        collectIdentifiers(functionTree, identifiers);
+        final var signature = new StringBuilder();
+
+        if (currentClass != null) {
+            appendSignature(signature, currentClass);
         }
 
-        if (localVariables.containsKey(id)) {
-            return false;
+        for (final var id : identifiers) {
+            final var variable = variables.global(id);
+
+            if (variable != null) {
+                signature.append("var ").append(id).append(' ').append(variable.type.llvmType())
+                        .append('[').append(variable.length).append("]\n");
+
+                if (variable.type instanceof CustomType customType) {
+                    appendSignature(signature, classes.get(customType.name));
+                }
+            }
+
+            final var function = functions.get(id);
+
+            if (function != null) {
+                appendSignature(signature, function);
+            }
+
+            final var clazz = classes.get(id);
+
+            if (clazz != null) {
+                appendSignature(signature, clazz);
+            }
+        }
+
+        return signature.toString();
+    }
+
+    private static void collectIdentifiers(ParseTree tree, Set<String> identifiers) {
+        if (tree instanceof TerminalNode node) {
+            if (node.getSymbol().getType() == HolyJavaParser.ID) {
+                identifiers.add(node.getText());
+            }
+
+            return;
+        }
+
+        for (var i = 0; i < tree.getChildCount(); i++) {
+            collectIdentifiers(tree.getChild(i), identifiers);
+        }
+    }
+
+    private void appendSignature(StringBuilder signature, Function function) {
+        signature.append("fun ").append(function.name).append(' ').append(function.returnType.llvmType());
+
+        for (final var parameter : function.parameters) {
+            signature.append(' ').append(parameter.type.llvmType());
         }
 
-        if (globalVariables.containsKey(id)) {
-            return true;
+        final var key = cacheKeys.get(function.name);
+
+        if (key != null) {
+            signature.append(" body ").append(key);
         }
 
-        error(context.getStart().getLine(), "unknown variable " + id);
-        return false;
+        signature.append('\n');
+    }
+
+    private void appendSignature(StringBuilder signature, Clazz clazz) {
+        signature.append("class ").append(clazz.name);
+
+        for (final var field : clazz.fields.entrySet()) {
+            signature.append(' ').append(field.getKey()).append(':').append(field.getValue().type.llvmType());
+        }
+
+        signature.append('\n');
+
+        for (final var method : clazz.methods) {
+            appendSignature(signature, method);
+        }
     }
 
     private void error(int line, String message) {
@@ -1026,4 +1295,7 @@ class LLVMActions extends HolyJavaBaseListener {
         throw new IllegalStateException(errorMessage);
     }
 
+    private record Branch(Value condition, Map<String, Constant> constants) {
+    }
+
 }
@@ -0,0 +1,144 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+public class LLVMBatchCompiler {
+
+    private static final String SOURCE_EXTENSION = ".hj";
+    private static final String OUTPUT_EXTENSION = ".ll";
+    private static final String EXECUTABLE_FALLBACK_EXTENSION = ".out";
+    private final LLVMCompiler compiler;
+    // Każda kompilacja natywna uruchamia procesy opt i clang, więc naraz budujemy najwyżej tyle plików, ile jest procesorów
+    private final Semaphore nativeBuilds = new Semaphore(Runtime.getRuntime().availableProcessors());
+
+    public LLVMBatchCompiler(LLVMCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    public Summary compile(List<Path> paths) throws IOException, InterruptedException {
+        final var sources = collectSources(paths);
+        final var start = System.nanoTime();
+        final List<Future<Long>> results = new ArrayList<>();
+
+        // Licznik alokacji działa tylko na wątkach platformowych, więc przy pomiarze faz używamy ich stałej puli
+        // zamiast wątków wirtualnych, po jednym na procesor
+        final var processors = Runtime.getRuntime().availableProcessors();
+
+        try (final var executor = compiler.options().timePhases
+                ? Executors.newFixedThreadPool(processors)
+                : Executors.newVirtualThreadPerTaskExecutor()) {
+            for (final var source : sources) {
+                results.add(executor.submit(() -> compile(source)));
+            }
+        }
+
+        final var elapsed = System.nanoTime() - start;
+        var lines = 0L;
+        var failures = 0;
+
+        for (var i = 0; i < results.size(); i++) {
+            try {
+                lines += results.get(i).get();
+            } catch (ExecutionException exception) {
+                System.err.println(sources.get(i) + ": " + LLVMCompiler.describe(exception.getCause()));
+                failures++;
+            }
+        }
+
+        return new Summary(sources.size() - failures, failures, lines, elapsed);
+    }
+
+    private long compile(Path source) throws IOException, InterruptedException {
+        if (compiler.options().nativeOutput == null) {
+            compiler.compile(source, outputPath(source, compiler.outputExtension()));
+            return countLines(source);
+        }
+
+        nativeBuilds.acquire();
+
+        try {
+            compiler.compile(source, outputPath(source, compiler.outputExtension()));
+        } finally {
+            nativeBuilds.release();
+        }
+
+        return countLines(source);
+    }
+
+    private static long countLines(Path source) throws IOException {
+        final var buffer = new byte[LLVMSink.BUFFER_SIZE];
+        var lines = 0L;
+        var last = '\n';
+
+        try (final var input = Files.newInputStream(source)) {
+            int read;
+
+            while ((read = input.read(buffer)) > 0) {
+                for (var i = 0; i < read; i++) {
+                    if (buffer[i] == '\n') {
+                        lines++;
+                    }
+                }
+
+                last = (char) buffer[read - 1];
+            }
+        }
+
+        return last == '\n' ? lines : lines + 1;
+    }
+
+    static Path outputPath(Path source) {
+        return outputPath(source, OUTPUT_EXTENSION);
+    }
+
+    static Path outputPath(Path source, String extension) {
+        final var filename = source.getFileName().toString();
+        final var baseName = filename.endsWith(SOURCE_EXTENSION)
+                ? filename.substring(0, filename.length() - SOURCE_EXTENSION.length())
+                : filename;
+        final var output = source.resolveSibling(baseName + extension);
+        // Plik wykonywalny nie ma rozszerzenia, więc źródło bez .hj nadpisałoby samo siebie
+        return output.equals(source) ? source.resolveSibling(filename + EXECUTABLE_FALLBACK_EXTENSION) : output;
+    }
+
+    private static List<Path> collectSources(List<Path> paths) throws IOException {
+        final List<Path> sources = new ArrayList<>();
+
+        for (final var path : paths) {
+            if (!Files.isDirectory(path)) {
+                sources.add(path);
+                continue;
+            }
+
+            try (final Stream<Path> files = Files.walk(path)) {
+                files.filter(Files::isRegularFile)
+                        .filter(file -> file.getFileName().toString().endsWith(SOURCE_EXTENSION))
+                        .sorted()
+                        .forEach(sources::add);
+            }
+        }
+
+        return sources;
+    }
+
+    public record Summary(int compiled, int failed, long lines, long elapsedNanos) {
+
+        @Override
+        public String toString() {
+            final var seconds = elapsedNanos / 1_000_000_000.0;
+            return String.format("compiled %d files (%d failed), %d lines in %.3f s: %.1f files/s, %.1f lines/s",
+                    compiled, failed, lines, seconds, compiled / seconds, lines / seconds);
+        }
+
+    }
+
+}
@@ -0,0 +1,78 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+class LLVMCache {
+
+    private static final String FORMAT_VERSION = "15";
+    private static final String BODY_EXTENSION = ".ll";
+    private static final String HEADER_EXTENSION = ".header.ll";
+    private final Path directory;
+    private final String variant;
+
+    // Wariant odróżnia wpisy tworzone przy różnych ustawieniach kompilatora, np. z optymalizacjami i bez
+    LLVMCache(Path directory, String variant) {
+        this.directory = directory;
+        this.variant = variant;
+    }
+
+    String key(String... parts) {
+        try {
+            final var digest = MessageDigest.getInstance("SHA-256");
+            digest.update(FORMAT_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(variant.getBytes(StandardCharsets.UTF_8));
+
+            for (final var part : parts) {
+                digest.update((byte) 0);
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+            }
+
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    Fragment load(String key) {
+        try {
+            final var body = Files.readString(directory.resolve(key + BODY_EXTENSION));
+            final var header = Files.readString(directory.resolve(key + HEADER_EXTENSION));
+            return new Fragment(header, body);
+        } catch (NoSuchFileException exception) {
+            return null;
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    void store(String key, Fragment fragment) {
+        try {
+            Files.createDirectories(directory);
+            // Nagłówek zapisujemy przed treścią, bo to obecność treści oznacza kompletny wpis
+            write(directory.resolve(key + HEADER_EXTENSION), fragment.header());
+            write(directory.resolve(key + BODY_EXTENSION), fragment.body());
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private void write(Path path, String content) throws IOException {
+        final var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+        Files.writeString(temporary, content);
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    record Fragment(String header, String body) {
+    }
+
+}
@@ -0,0 +1,62 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LLVMCompileClient implements Closeable {
+
+    private final SocketChannel channel;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+
+    public LLVMCompileClient(String address) throws IOException {
+        channel = SocketChannel.open(LLVMCompileServer.parseAddress(address));
+        input = new DataInputStream(Channels.newInputStream(channel));
+        output = new DataOutputStream(Channels.newOutputStream(channel));
+    }
+
+    public String compile(String source) throws IOException {
+        final var bytes = source.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(LLVMCompileServer.COMPILE_REQUEST);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.flush();
+        return readResponse();
+    }
+
+    public Path compileFile(Path source) throws IOException {
+        final var output = LLVMBatchCompiler.outputPath(source);
+        Files.writeString(output, compile(Files.readString(source)));
+        return output;
+    }
+
+    public String stats() throws IOException {
+        output.writeByte(LLVMCompileServer.STATS_REQUEST);
+        output.flush();
+        return readResponse();
+    }
+
+    private String readResponse() throws IOException {
+        final var status = input.readByte();
+        final var response = new String(input.readNBytes(input.readInt()), StandardCharsets.UTF_8);
+
+        if (status != LLVMCompileServer.STATUS_OK) {
+            throw new IllegalStateException(response);
+        }
+
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+}
@@ -0,0 +1,133 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+public class LLVMCompileServer {
+
+    static final byte COMPILE_REQUEST = 'C';
+    static final byte STATS_REQUEST = 'S';
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    private final LLVMCompiler compiler;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder sourceBytes = new LongAdder();
+    private final LongAdder totalLatency = new LongAdder();
+    private final LongAccumulator maxLatency = new LongAccumulator(Long::max, 0);
+    private final long startTime = System.nanoTime();
+
+    public LLVMCompileServer(LLVMCompiler compiler) {
+        this.compiler = compiler;
+    }
+
+    public void serve(String address) throws IOException {
+        final var socketAddress = parseAddress(address);
+        final var family = socketAddress instanceof UnixDomainSocketAddress ? StandardProtocolFamily.UNIX : StandardProtocolFamily.INET;
+
+        if (socketAddress instanceof UnixDomainSocketAddress unixAddress) {
+            Files.deleteIfExists(unixAddress.getPath());
+            unixAddress.getPath().toFile().deleteOnExit();
+        }
+
+        try (final var server = ServerSocketChannel.open(family);
+             final var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(socketAddress);
+            System.out.println("listening on " + address);
+
+            while (server.isOpen()) {
+                final var channel = server.accept();
+                executor.submit(() -> handle(channel));
+            }
+        }
+    }
+
+    static SocketAddress parseAddress(String address) {
+        if (address.chars().allMatch(Character::isDigit)) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+        }
+
+        return UnixDomainSocketAddress.of(address);
+    }
+
+    private Void handle(SocketChannel channel) throws IOException {
+        try (channel;
+             final var input = new DataInputStream(Channels.newInputStream(channel));
+             final var output = new DataOutputStream(Channels.newOutputStream(channel))) {
+            while (true) {
+                final byte request;
+
+                try {
+                    request = input.readByte();
+                } catch (EOFException endOfStream) {
+                    return null;
+                }
+
+                switch (request) {
+                    case COMPILE_REQUEST -> compile(input, output);
+                    case STATS_REQUEST -> respond(output, STATUS_OK, stats());
+                    default -> {
+                        respond(output, STATUS_ERROR, "unknown request " + request);
+                        return null;
+                    }
+                }
+            }
+        }
+    }
+
+    private void compile(DataInputStream input, DataOutputStream output) throws IOException {
+        final var length = input.readInt();
+        final var source = new String(input.readNBytes(length), StandardCharsets.UTF_8);
+        final var start = System.nanoTime();
+        String response;
+        byte status;
+
+        try {
+            response = compiler.compileSource(source);
+            status = STATUS_OK;
+        } catch (RuntimeException exception) {
+            response = LLVMCompiler.describe(exception);
+            status = STATUS_ERROR;
+            failures.increment();
+        }
+
+        final var latency = System.nanoTime() - start;
+        requests.increment();
+        sourceBytes.add(length);
+        totalLatency.add(latency);
+        maxLatency.accumulate(latency);
+        respond(output, status, response);
+    }
+
+    private static void respond(DataOutputStream output, byte status, String response) throws IOException {
+        final var bytes = response.getBytes(StandardCharsets.UTF_8);
+        output.writeByte(status);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+        output.flush();
+    }
+
+    private String stats() {
+        final var uptime = (System.nanoTime() - startTime) / 1_000_000_000.0;
+        final var count = requests.sum();
+        final var meanLatency = count == 0 ? 0.0 : totalLatency.sum() / (double) count / 1_000_000.0;
+        return String.format("requests=%d failed=%d bytes=%d uptime=%.1fs throughput=%.1f req/s mean_latency=%.3fms max_latency=%.3fms",
+                count, failures.sum(), sourceBytes.sum(), uptime, count / uptime, meanLatency, maxLatency.get() / 1_000_000.0);
+    }
+
+}
@@ -1,24 +1,164 @@
 package pl.edu.pw.ee.llvm;
 
+import org.antlr.v4.runtime.BailErrorStrategy;
+import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
-import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 import pl.edu.pw.ee.HolyJavaLexer;
 import pl.edu.pw.ee.HolyJavaParser;
 
 import java.io.IOException;
+import java.nio.file.Path;
 
 public class LLVMCompiler {
 
+    private static final String OUTPUT_NAME = "output";
+    private static final String OUTPUT_EXTENSION = ".ll";
+    private final CompilerOptions options;
+    private final LLVMCache cache;
+
+    public LLVMCompiler() {
+        this(new CompilerOptions());
+    }
+
+    public LLVMCompiler(CompilerOptions options) {
+        this.options = options;
+        this.cache = options.cacheDirectory == null ? null : new LLVMCache(options.cacheDirectory,
+                (options.optimize ? "optimized" : "plain") + (options.checkBounds ? "" : "-release")
+                        + (options.optimize && options.inlineBudget > 0 ? "-inline" + options.inlineBudget : ""));
+    }
+
+    CompilerOptions options() {
+        return options;
+    }
+
     public void compile(String filename) throws IOException {
-        final var input = CharStreams.fromFileName(filename);
+        compile(Path.of(filename), Path.of(OUTPUT_NAME + outputExtension()));
+    }
+
+    // Zapisuje moduł do pliku albo, gdy wybrano rodzaj wyniku, buduje z niego plik wykonywalny lub obiektowy
+    public void compile(Path input, Path output) throws IOException {
+        if (options.nativeOutput == null) {
+            try (final var sink = LLVMSink.toFile(output)) {
+                compile(input, sink);
+            }
+
+            return;
+        }
+
+        final var build = NativeBuild.start(options, output);
+
+        try {
+            compile(input, build);
+        } catch (IOException | RuntimeException exception) {
+            build.abort();
+            throw exception;
+        }
+    }
+
+    String outputExtension() {
+        return options.nativeOutput == null ? OUTPUT_EXTENSION : options.nativeOutput.extension();
+    }
+
+    public String compileSource(String source) {
+        final var llvmCode = new StringBuilder();
+        compileSource(source, llvmCode::append);
+        return llvmCode.toString();
+    }
+
+    public void compileSource(String source, LLVMSink sink) {
+        compile(CharStreams.fromString(source), sink);
+    }
+
+    public void compile(Path input, LLVMSink sink) throws IOException {
+        compile(MappedCharStream.fromPath(input), sink);
+    }
+
+    private void compile(CharStream input, LLVMSink sink) {
+        final var phases = new CompilationPhases(input.getSourceName(), options.timePhases);
         final var lexer = new HolyJavaLexer(input);
-        final var tokens = new CommonTokenStream(lexer);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(SyntaxErrorListener.INSTANCE);
+        final var tokens = options.unbufferedTokens ? new UnbufferedTokenStream<>(new DefaultChannelTokenSource(lexer)) : new CommonTokenStream(lexer);
+
+        if (tokens instanceof CommonTokenStream bufferedTokens) {
+            phases.measure("lex", bufferedTokens::fill);
+        }
+
         final var parser = new HolyJavaParser(tokens);
-        final var tree = parser.programme();
-        final var walker = new ParseTreeWalker();
-        final var actions = new LLVMActions();
-        walker.walk(actions, tree);
+        parser.setProfile(options.profileParser);
+        parser.removeErrorListeners();
+        parser.addErrorListener(SyntaxErrorListener.INSTANCE);
+        final var tree = phases.measure("parse", () -> tokens instanceof CommonTokenStream ? parseTwoStage(parser) : parser.programme());
+
+        if (options.profileParser) {
+            System.err.print(ParserProfileReport.create(parser));
+        }
+
+        final var walker = new LLVMTreeWalker();
+        final var generator = new LLVMGenerator(sink);
+        generator.setBoundsChecked(options.checkBounds);
+        final var inliner = new InlineFunctions(options.inlineBudget);
+
+        if (options.optimize) {
+            generator.setWholeProgram(true);
+            generator.addPass(inliner);
+            generator.addPass(new RemoveUnreachableBlocks());
+            generator.addPass(new PromoteToRegisters());
+            generator.addPass(new ForwardConstantInitializers());
+            generator.addPass(new EliminateBoundsChecks());
+            generator.addPass(new RemoveUnreachableBlocks());
+            generator.addPass(new EliminateDeadCode());
+            generator.addPass(new ShareStackSlots());
+            generator.addPass(new RenumberRegisters());
+        }
+
+        final var actions = new LLVMActions(generator, cache, options.optimize);
+
+        try {
+            phases.measure("walk", () -> walker.walk(actions, tree));
+            phases.measure("emit", generator::finish);
+        } finally {
+            generator.close();
+        }
+
+        if (sink instanceof NativeBuild build) {
+            phases.measure("native", build::finish);
+        }
+
+        if (options.timePhases) {
+            System.err.print(phases.report());
+        }
+
+        if (options.reportInlining) {
+            System.err.print(inliner.report());
+        }
+    }
+
+    // Wyjątki bez komunikatu, np. NullPointerException, opisujemy nazwą klasy zamiast tekstu "null"
+    static String describe(Throwable exception) {
+        return exception.getMessage() == null ? exception.toString() : exception.getMessage();
+    }
+
+    // Najpierw szybsze SLL, pełne LL tylko dla wejść, na których SLL się poddało
+    static HolyJavaParser.ProgrammeContext parseTwoStage(HolyJavaParser parser) {
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+
+        try {
+            return parser.programme();
+        } catch (ParseCancellationException exception) {
+            parser.reset();
+            parser.addErrorListener(SyntaxErrorListener.INSTANCE);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.programme();
+        }
     }
 
 }
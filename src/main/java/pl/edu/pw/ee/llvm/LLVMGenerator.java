@@ -1,431 +1,319 @@
 package pl.edu.pw.ee.llvm;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 class LLVMGenerator {
 
-    private static final StringBuilder HEADER_TEXT = new StringBuilder();
-    private static final StringBuilder MAIN_TEXT = new StringBuilder();
-    private static final StringBuilder BUFFER_TEXT = new StringBuilder();
-    static int register = 1;
-    static int str = 1;
-    static int arr = 1;
-    static int mat = 1;
-    static int loops = 0;
-    static int cur_loops = 0;
-    static int loop_index = 0;
-    static int ifs = 0;
-    static int cur_ifs = 0;
-    static int if_index = 0;
-    private static StringBuilder CURRENT_TEXT = MAIN_TEXT;
-
-    static void printf(Value value) {
-        if (value.type == PrimitiveType.BOOLEAN) {
-            printf_bool();
+    private static final String PREAMBLE = "declare i32 @sprintf(i8*, i8*, ...)\n" +
+            "declare i8* @strcpy(i8*, i8*)\n" +
+            "declare i8* @strcat(i8*, i8*)\n" +
+            "declare i32 @scanf(i8*, ...)\n" +
+            "declare i32 @strcmp(i8*, i8*)\n" +
+            "declare noalias i8* @malloc(i64)\n" +
+            "declare void @llvm.memcpy.p0i8.p0i8.i64(i8* noalias nocapture writeonly, i8* noalias nocapture readonly, i64, i1 immarg)\n" +
+            "declare void @llvm.lifetime.start.p0i8(i64 immarg, i8* nocapture)\n" +
+            "declare void @llvm.lifetime.end.p0i8(i64 immarg, i8* nocapture)\n" +
+            "@strs = constant [5 x i8] c\"%10s\\00\"\n" +
+            "@truetext = constant [5 x i8] c\"true\\00\"\n" +
+            "@falsetext = constant [6 x i8] c\"false\\00\"\n";
+    private static final String BOUNDS_OK = "bounds_ok_";
+    private static final String BOUNDS_FAIL = "bounds_fail_";
+    // Przyrostek stałej globalnej z wartościami literału tablicy lub macierzy
+    static final String INITIALIZER = ".init";
+    static final String MEMCPY = "@llvm.memcpy.p0i8.p0i8.i64";
+    private final LLVMSink sink;
+    private final IRModule module = new IRModule();
+    private final List<IRPass> passes = new ArrayList<>();
+    // Szablony instrukcji zależą tylko od typu, więc budujemy je raz zamiast przy każdej instrukcji
+    private final Map<String, String> loadTemplates = new HashMap<>();
+    private final Map<String, String> storeTemplates = new HashMap<>();
+    private final Map<Opcode, Map<String, String>> arithmeticTemplates = new EnumMap<>(Map.of(
+            Opcode.ADD, new HashMap<>(), Opcode.SUB, new HashMap<>(), Opcode.MUL, new HashMap<>(), Opcode.DIV, new HashMap<>()));
+    private final StringBuilder printed = new StringBuilder();
+    private final IRFunction mainFunction = new IRFunction(IRModule.MAIN, "define i32 @main() nounwind{");
+    int register = 1;
+    int str = 1;
+    int arr = 1;
+    int mat = 1;
+    int loops = 0;
+    int cur_loops = 0;
+    int loop_index = 0;
+    int ifs = 0;
+    int cur_ifs = 0;
+    int if_index = 0;
+    int logicals = 0;
+    int checks = 0;
+    private IRFunction currentFunction = mainFunction;
+    private Counters mainCounters;
+    // Napisy już zapisane w pamięci w bieżącej funkcji, według treści
+    private Map<String, String> literals = new HashMap<>();
+    private Map<String, String> mainLiterals;
+    private String functionPrefix = "";
+    private boolean isWholeProgram;
+    private SpilledBatches spilled;
+    private boolean isBoundsChecked = true;
+
+    LLVMGenerator(LLVMSink sink) {
+        this.sink = sink;
+        write(PREAMBLE);
+    }
+
+    // Wypisanie to jedno wywołanie funkcji środowiska właściwej dla typu, tablice i macierze w całości
+    void printf(Value value) {
+        if (value instanceof Array array) {
+            final var type = array.type.llvmType();
+            elementPointer(arrayType(array.length, array.type), array.name(), "0");
+            register++;
+            runtimeCall("@hj.print.array." + array.type.printSuffix(), type + "* $0, i64 " + array.length, Registers.name(register - 1));
             return;
         }
 
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([4 x i8], [4 x i8]* @")
-                .append(value.type.llvmPrintPattern())
-                .append(", i32 0, i32 0), ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(")\n");
-        register++;
+        if (value instanceof Matrix matrix) {
+            final var type = matrix.type.llvmType();
+            matrixElementPointer(matrix, "0", "0");
+            register++;
+            runtimeCall("@hj.print.matrix." + matrix.type.printSuffix(),
+                    type + "* $0, i64 " + matrix.length + ", i64 " + matrix.rowLength, Registers.name(register - 1));
+            return;
+        }
+
+        runtimeCall("@hj.print." + value.type.printSuffix(), value.type.llvmType() + " $0", value.name());
     }
 
-    private static void printf_bool() {
-        // Porównanie, czy wartość boola to 1 (true) czy 0 (false)
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = icmp eq i1 %")
-                .append(register - 1)
-                .append(", 1\n");
-        register++;
+    private void runtimeCall(String function, String arguments, String... operands) {
+        call(null, "void", function, "call void " + function + "(" + arguments + ")", operands);
+    }
 
-        // Konwersja wyniku porównania na string ("true" lub "false")
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = select i1 %")
-                .append(register - 1)
-                .append(", i8* @truetext, i8* @falsetext\n");
-        register++;
+    void declare(String id, Type type, boolean isGlobalContext) {
+        if (isGlobalContext) {
+            module.globals.append("@")
+                    .append(id)
+                    .append(" = global ")
+                    .append(type.llvmType())
+                    .append(" ")
+                    .append(type.llvmZeroValue())
+                    .append("\n");
+            return;
+        }
 
-        // Wywołanie printf z formatem %s
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = call i32 (i8*, ...) @printf(i8* getelementptr inbounds ([6 x i8], [6 x i8]* @strpb, i32 0, i32 0), i8* %")
-                .append(register - 1)
-                .append(")\n");
-        register++;
+        emit(Opcode.ALLOCA, "%" + id, type.llvmType(), "alloca " + type.llvmType());
     }
 
-    static void declare(String id, Type type, boolean isGlobalContext) {
-        final var text = isGlobalContext ? HEADER_TEXT : CURRENT_TEXT;
-        text.append(isGlobalContext ? "@" : "%")
-                .append(id)
-                .append(" = ")
-                .append(isGlobalContext ? "global" : "alloca")
-                .append(" ")
-                .append(type.llvmType())
-                .append(isGlobalContext ? " " + type.llvmZeroValue() : "")
-                .append("\n");
-    }
+    void declare(Array array) {
+        final var arrayType = arrayType(array.length, array.type);
 
-    static void declare(Array array) {
-        final var text = array.isGlobal ? HEADER_TEXT : CURRENT_TEXT;
-        text.append(array.name())
-                .append(" = ")
-                .append(array.isGlobal ? "global" : "alloca")
-                .append(" [")
-                .append(array.length)
-                .append(" x ")
-                .append(array.type.llvmType())
-                .append("]")
-                .append(array.isGlobal ? " zeroinitializer" : "")
-                .append("\n");
+        if (array.isGlobal) {
+            module.globals.append(array.name())
+                    .append(" = global ")
+                    .append(arrayType)
+                    .append(" zeroinitializer\n");
+            return;
+        }
+
+        emit(Opcode.ALLOCA, array.name(), arrayType, "alloca " + arrayType);
     }
 
-    static void declare(Matrix matrix) {
-        final var text = matrix.isGlobal ? HEADER_TEXT : CURRENT_TEXT;
-        text.append(matrix.name())
-                .append(" = ")
-                .append(matrix.isGlobal ? "global" : "alloca")
-                .append(" [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*]")
-                .append(matrix.isGlobal ? " zeroinitializer" : "")
-                .append("\n");
+    void declare(Matrix matrix) {
+        final var matrixType = matrixType(matrix);
+
+        if (matrix.isGlobal) {
+            module.globals.append(matrix.name())
+                    .append(" = global ")
+                    .append(matrixType)
+                    .append(" zeroinitializer\n");
+            return;
+        }
+
+        emit(Opcode.ALLOCA, matrix.name(), matrixType, "alloca " + matrixType);
     }
 
-    static void assign_array_item(Array array, String index, Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(array.length)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("], [")
-                .append(array.length)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]* ")
-                .append(array.name())
-                .append(", i64 0, i64 ")
-                .append(index)
-                .append("\n");
-        CURRENT_TEXT.append("store ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(", ")
-                .append(value.type.llvmType())
-                .append("* %")
-                .append(register)
-                .append("\n");
+    void assign_array_item(Array array, String index, Value value) {
+        elementPointer(arrayType(array.length, value.type), array.name(), index);
+        store(value, Registers.name(register));
         register++;
     }
 
-    static void assign_matrix_row(Matrix matrix, String index, Array value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*], [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*]* ")
-                .append(matrix.name())
-                .append(", i64 0, i64 ")
-                .append(index)
-                .append("\n");
-        CURRENT_TEXT.append("store [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]* ")
-                .append(value.name())
-                .append(", [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]** %")
-                .append(register)
-                .append("\n");
+    // Porównanie bez znaku łapie naraz indeksy ujemne i za duże; blok błędu jest osobny, żeby EliminateBoundsChecks
+    // mógł usunąć sprawdzenie, zamieniając skok warunkowy na zwykły
+    void checkBounds(Value index, int length) {
+        if (!isBoundsChecked) {
+            return;
+        }
+
+        final var inBounds = BOUNDS_OK + checks;
+        final var outOfBounds = BOUNDS_FAIL + checks;
+        checks++;
+        final var condition = Registers.name(register);
+        emit(Opcode.COMPARE, condition, "i64", "icmp ult i64 $0, $1", index.name(), Integer.toString(length));
         register++;
+        branch(condition, inBounds, outOfBounds);
+
+        label(outOfBounds);
+        runtimeCall(PrintRuntime.FAIL_BOUNDS, "i64 $0, i64 " + length, index.name());
+        emit(Opcode.UNREACHABLE, null, "void", "unreachable");
+
+        label(inBounds);
     }
 
-    static void assign_matrix_item(Matrix matrix, String rowIndex, String columnIndex, Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]*], [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]*]* ")
-                .append(matrix.name())
-                .append(", i64 0, i64 ")
-                .append(rowIndex)
-                .append("\n");
-        register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]*, [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]** %")
-                .append(register - 1)
-                .append("\n");
-        register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("], [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(value.type.llvmType())
-                .append("]* %")
-                .append(register - 1)
-                .append(", i64 0, i64 ")
-                .append(columnIndex)
-                .append("\n");
-        CURRENT_TEXT.append("store ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(", ")
-                .append(value.type.llvmType())
-                .append("* %")
-                .append(register)
-                .append("\n");
+    void assign_matrix_item(Matrix matrix, String rowIndex, String columnIndex, Value value) {
+        matrixElementPointer(matrix, rowIndex, columnIndex);
+        store(value, Registers.name(register));
         register++;
     }
 
-    static void assign(String id, boolean isGlobalContext, Value value) {
-        CURRENT_TEXT.append("store ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(", ")
-                .append(value.type.llvmType())
-                .append("* ")
-                .append(isGlobalContext ? "@" : "%")
-                .append(id)
-                .append("\n");
+    // Stałe elementy literału trafiają do stałej globalnej kopiowanej jednym memcpy, pozostałe zapisujemy osobno
+    void initialize(Array array) {
+        final var values = array.values;
+
+        if (values.hasConstant()) {
+            final var text = new StringBuilder();
+            appendInitializer(text, array.type, values, 0, values.size());
+            copyInitializer(array, arrayType(array.length, array.type), text.toString(), (long) array.length * size(array.type));
+        }
+
+        for (var index = 0; index < values.size(); index++) {
+            final var value = values.computed(index);
+
+            if (value != null) {
+                assign_array_item(array, Registers.number(index), value);
+            }
+        }
+    }
+
+    void initialize(Matrix matrix) {
+        final var values = matrix.values;
+        final var columns = matrix.rowLength;
+
+        if (values.hasConstant()) {
+            final var rowType = arrayType(columns, matrix.type);
+            final var text = new StringBuilder("[");
+
+            for (var row = 0; row < matrix.length; row++) {
+                text.append(row > 0 ? ", " : "").append(rowType).append(" ");
+                appendInitializer(text, matrix.type, values, row * columns, columns);
+            }
+
+            copyInitializer(matrix, matrixType(matrix), text.append("]").toString(), (long) values.size() * size(matrix.type));
+        }
+
+        for (var index = 0; index < values.size(); index++) {
+            final var value = values.computed(index);
+
+            if (value != null) {
+                assign_matrix_item(matrix, Registers.number(index / columns), Registers.number(index % columns), value);
+            }
+        }
+    }
+
+    private static int size(Type type) {
+        return ((PrimitiveType) type).size();
+    }
+
+    private static void appendInitializer(StringBuilder text, Type elementType, LiteralBuffer values, int from, int count) {
+        final var type = (PrimitiveType) elementType;
+        text.append("[");
+
+        for (var index = from; index < from + count; index++) {
+            text.append(index > from ? ", " : "").append(type.llvmType()).append(" ");
+            values.appendText(index, type, text);
+        }
+
+        text.append("]");
     }
 
-    static Value load(String id, Value value, boolean isGlobalContext) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load ")
-                .append(value.type.llvmType())
-                .append(", ")
-                .append(value.type.llvmType())
-                .append("* ")
-                .append(isGlobalContext ? "@" : "%")
-                .append(id)
+    private void copyInitializer(Value aggregate, String type, String initializer, long size) {
+        final var name = "@" + functionPrefix + aggregate.name + INITIALIZER;
+        ownGlobals().append(name)
+                .append(" = private unnamed_addr constant ")
+                .append(type)
+                .append(" ")
+                .append(initializer)
                 .append("\n");
+        emit(Opcode.CAST, Registers.name(register), "i8*", "bitcast " + type + "* $0 to i8*", aggregate.name());
         register++;
-        final var newValue = value.withName(String.valueOf(register - 1));
-        newValue.isGlobal = false;
-        return newValue;
-    }
-
-    static void load_array_value(Array array, String index) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(array.length)
-                .append(" x ")
-                .append(array.type.llvmType())
-                .append("], [")
-                .append(array.length)
-                .append(" x ")
-                .append(array.type.llvmType())
-                .append("]* ")
-                .append(array.name())
-                .append(", i64 0, i64 ")
-                .append(index)
-                .append("\n");
+        emit(Opcode.CAST, Registers.name(register), "i8*", "bitcast " + type + "* $0 to i8*", name);
         register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load ")
-                .append(array.type.llvmType())
-                .append(", ")
-                .append(array.type.llvmType())
-                .append("* %")
-                .append(register - 1)
-                .append("\n");
+        call(null, "void", MEMCPY, "call void " + MEMCPY + "(i8* $0, i8* $1, i64 " + size + ", i1 false)",
+                Registers.name(register - 2), Registers.name(register - 1));
+    }
+
+    void assign(String id, boolean isGlobalContext, Value value) {
+        store(value, (isGlobalContext ? "@" : "%") + id);
+    }
+
+    Value load(String id, Value value, boolean isGlobalContext) {
+        loadFrom(value.type.llvmType(), (isGlobalContext ? "@" : "%") + id);
         register++;
+        return new Register(register - 1, value.type, value.length);
     }
 
-    static void load_matrix_value(Matrix matrix, String rowIndex, String columnIndex) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*], [")
-                .append(matrix.rows.size())
-                .append(" x [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*]* ")
-                .append(matrix.name())
-                .append(", i64 0, i64 ")
-                .append(rowIndex)
-                .append("\n");
+    void load_array_value(Array array, String index) {
+        elementPointer(arrayType(array.length, array.type), array.name(), index);
         register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]*, [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]** %")
-                .append(register - 1)
-                .append("\n");
+        loadFrom(array.type.llvmType(), Registers.name(register - 1));
         register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("], [")
-                .append(matrix.rowLength)
-                .append(" x ")
-                .append(matrix.type.llvmType())
-                .append("]* %")
-                .append(register - 1)
-                .append(", i64 0, i64 ")
-                .append(columnIndex)
-                .append("\n");
+    }
+
+    void load_matrix_value(Matrix matrix, String rowIndex, String columnIndex) {
+        matrixElementPointer(matrix, rowIndex, columnIndex);
         register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load ")
-                .append(matrix.type.llvmType())
-                .append(", ")
-                .append(matrix.type.llvmType())
-                .append("* %")
-                .append(register - 1)
-                .append("\n");
+        loadFrom(matrix.type.llvmType(), Registers.name(register - 1));
         register++;
     }
 
-    static void jump_to_else_end() {
-        final var endLabel = "else_end_" + cur_ifs;
-        CURRENT_TEXT.append("br label %")
-                .append(endLabel)
-                .append("\n");
+    Value lastResult(Type type) {
+        return new Register(register - 1, type, 0);
     }
 
-    static void write_else_end_label() {
-        final var endLabel = "else_end_" + cur_ifs;
-        CURRENT_TEXT.append(endLabel)
-                .append(": \n");
+    void jump_to_else_end() {
+        jump("else_end_" + cur_ifs);
     }
 
-    static void write_else_start() {
-        var number = cur_ifs;
-        final var startLabel = "else_start_" + number;
-        CURRENT_TEXT.append("br label %")
-                .append(startLabel)
-                .append("\n");
-        CURRENT_TEXT.append(startLabel)
-                .append(": \n");
+    void write_else_end_label() {
+        label("else_end_" + cur_ifs);
+    }
+
+    void write_else_start() {
+        final var startLabel = "else_start_" + cur_ifs;
+        jump(startLabel);
+        label(startLabel);
     }
 
-    static void evaluate_else() {
+    void evaluate_else(Value condition) {
         final var body_label = "else_body_" + cur_ifs;
         final var end_label = "else_end_" + cur_ifs;
-        CURRENT_TEXT.append("br i1 %")
-                .append(register - 1)
-                .append(", label %")
-                .append(end_label)
-                .append(", label %")
-                .append(body_label)
-                .append("\n");
-        CURRENT_TEXT.append(body_label)
-                .append(": \n");
+        branch(condition, end_label, body_label);
+        label(body_label);
     }
 
-    static void write_if_start_label() {
+    void write_if_start_label() {
         ifs++;
         cur_ifs++;
         final var startLabel = "if_start_" + cur_ifs;
-        CURRENT_TEXT.append("br label %")
-                .append(startLabel)
-                .append("\n");
-        CURRENT_TEXT.append(startLabel)
-                .append(": \n");
+        jump(startLabel);
+        label(startLabel);
     }
 
-    static void evaluate_if_condition(String id) {
+    void evaluate_if_condition(Value condition) {
         final var body_label = "if_body_" + cur_ifs;
         final var end_label = "if_end_" + cur_ifs;
-        CURRENT_TEXT.append("br i1 %")
-                .append(id)
-                .append(", label %")
-                .append(body_label)
-                .append(", label %")
-                .append(end_label)
-                .append("\n");
-        CURRENT_TEXT.append(body_label)
-                .append(": \n");
+        branch(condition, body_label, end_label);
+        label(body_label);
     }
 
-    static void jump_to_if_end() {
-        final var endLabel = "if_end_" + cur_ifs;
-        CURRENT_TEXT.append("br label %")
-                .append(endLabel)
-                .append("\n");
+    void jump_to_if_end() {
+        jump("if_end_" + cur_ifs);
     }
 
-    static void write_if_end_label() {
-        final var endLabel = "if_end_" + cur_ifs;
-        CURRENT_TEXT.append(endLabel)
-                .append(": \n");
+    void write_if_end_label() {
+        label("if_end_" + cur_ifs);
         cur_ifs--;
         if (cur_ifs == if_index) {
             if_index = ifs;
@@ -434,47 +322,27 @@ class LLVMGenerator {
         register++;
     }
 
-    static void write_loop_start_label() {
+    void write_loop_start_label() {
         loops++;
         cur_loops++;
         final var startLabel = "loop_start_" + cur_loops;
-        CURRENT_TEXT.append("br label %")
-                .append(startLabel)
-                .append("\n");
-        CURRENT_TEXT.append(startLabel)
-                .append(": \n");
+        jump(startLabel);
+        label(startLabel);
     }
 
-    static void evaluate_loop() {
-        final var body_label = "loop_body_" + cur_loops;
-        final var end_label = "loop_end_" + cur_loops;
-        CURRENT_TEXT.append("br i1 %")
-                .append(register - 1)
-                .append(", label %")
-                .append(body_label)
-                .append(", label %")
-                .append(end_label)
-                .append("\n");
+    void evaluate_loop(Value condition) {
+        branch(condition, "loop_body_" + cur_loops, "loop_end_" + cur_loops);
     }
 
-    static void evaluate_loop_condition(String id) {
+    void evaluate_loop_condition(Value condition) {
         final var body_label = "loop_body_" + cur_loops;
         final var end_label = "loop_end_" + cur_loops;
-        CURRENT_TEXT.append("br i1 %")
-                .append(id)
-                .append(", label %")
-                .append(body_label)
-                .append(", label %")
-                .append(end_label)
-                .append("\n");
-        CURRENT_TEXT.append(body_label)
-                .append(": \n");
+        branch(condition, body_label, end_label);
+        label(body_label);
     }
 
-    static void write_loop_end_label() {
-        final var endLabel = "loop_end_" + cur_loops;
-        CURRENT_TEXT.append(endLabel)
-                .append(": \n");
+    void write_loop_end_label() {
+        label("loop_end_" + cur_loops);
         cur_loops--;
         if (cur_loops == loop_index) {
             loop_index = loops;
@@ -483,462 +351,204 @@ class LLVMGenerator {
         register++;
     }
 
-    static void and(Value value1, Value value2) {
-        final var labelTrue = "and_true_" + register;
-        final var labelNotTrue = "and_not_true_" + register;
-        final var labelEnd = "and_end_" + register;
-        final var result = "%" + register;
-        final var trueVal = "%true_" + register;
-        final var falseVal = "%false_" + register;
+    void and(Value value1, Value value2) {
+        emit(Opcode.AND, Registers.name(register), "i1", "and i1 $0, $1", value1.name(), value2.name());
         register++;
+    }
 
-        // Jeśli value1 jest fałszywe, skaczemy od razu do końca
-        CURRENT_TEXT.append("br i1 ")
-                .append(value1.name())
-                .append(", label %")
-                .append(labelTrue)
-                .append(", label %")
-                .append(labelNotTrue)
-                .append("\n");
+    void or(Value value1, Value value2) {
+        emit(Opcode.OR, Registers.name(register), "i1", "or i1 $0, $1", value1.name(), value2.name());
+        register++;
+    }
 
-        // Blok jeśli value1 == true sprawdzamy value2
-        CURRENT_TEXT.append(labelTrue)
-                .append(":\n");
-        CURRENT_TEXT.append(trueVal)
-                .append(" = and i1 ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
-        CURRENT_TEXT.append("br label %")
-                .append(labelEnd)
-                .append("\n");
+    // Prawy argument & i | trafia do osobnego bloku, do którego wchodzimy tylko wtedy, gdy lewy nie rozstrzyga wyniku
+    ShortCircuit beginShortCircuit(Value left, boolean isAnd) {
+        final var prefix = isAnd ? "and_" : "or_";
+        final var shortCircuit = new ShortCircuit(left, isAnd, currentFunction.currentBlock().branchTarget(),
+                prefix + "rhs_" + logicals, prefix + "end_" + logicals);
+        logicals++;
 
-        // jesli nie to zwracamy zero
-        CURRENT_TEXT.append(labelNotTrue)
-                .append(":\n");
-        CURRENT_TEXT.append(falseVal)
-                .append(" = and i1 0, 0\n");
-        CURRENT_TEXT.append("br label %")
-                .append(labelEnd)
-                .append("\n");
+        if (isAnd) {
+            branch(left, shortCircuit.rightLabel(), shortCircuit.endLabel());
+        } else {
+            branch(left, shortCircuit.endLabel(), shortCircuit.rightLabel());
+        }
 
-        CURRENT_TEXT.append(labelEnd)
-                .append(":\n")
-                .append(result)
-                .append(" = phi i1 [ ").append(trueVal).append(", %").append(labelTrue)
-                .append(" ], [ ").append(falseVal).append(", %").append(labelNotTrue).append(" ]\n");
+        label(shortCircuit.rightLabel());
+        return shortCircuit;
     }
 
-    static void or(Value value1, Value value2) {
-        final var labelTrue = "and_true_" + register;
-        final var labelNotTrue = "and_not_true_" + register;
-        final var labelEnd = "and_end_" + register;
-        final var result = "%" + register;
-        final var trueVal = "%true_" + register;
-        final var falseVal = "%false_" + register;
-        register++;
-
-        // Jeśli value1 jest prawdziwe, skaczemy od labelTrue
-        CURRENT_TEXT.append("br i1 ")
-                .append(value1.name())
-                .append(", label %")
-                .append(labelTrue)
-                .append(", label %")
-                .append(labelNotTrue)
-                .append("\n");
+    Value endShortCircuit(ShortCircuit shortCircuit, Value right) {
+        // Prawy argument mógł sam dodać bloki, więc wejście do phi pochodzi z bloku, w którym skończyło się jego liczenie
+        final var rightEnd = currentFunction.currentBlock().branchTarget();
+        jump(shortCircuit.endLabel());
+        label(shortCircuit.endLabel());
 
-        // Blok jeśli value1 == true zwracamy od razu prawda
-        CURRENT_TEXT.append(labelTrue)
-                .append(":\n");
-        CURRENT_TEXT.append(trueVal)
-                .append(" = or i1 1, 1")
-                .append("\n")
-                .append("br label %")
-                .append(labelEnd)
-                .append("\n");
-
-        // Blok jesli value1 != true obliczamy or
-        CURRENT_TEXT.append(labelNotTrue)
-                .append(":\n");
-        CURRENT_TEXT.append(falseVal)
-                .append(" = or i1 ").append(value1.name()).append(", ").append(value2.name())
-                .append("\n")
-                .append("br label %")
-                .append(labelEnd)
-                .append("\n");
+        if (shortCircuit.left() instanceof Constant constant) {
+            return ConstantFolder.isTrue(constant) == shortCircuit.isAnd() ? right : constant;
+        }
 
-        // Blok końcowy
-        CURRENT_TEXT.append(labelEnd)
-                .append(":\n")
-                .append(result)
-                .append(" = phi i1 [ ").append(trueVal).append(", %").append(labelTrue)
-                .append(" ], [ ").append(falseVal).append(", %").append(labelNotTrue).append(" ]\n");
-    }
-
-    static void xor(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = xor i1 ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
+        final var skipped = shortCircuit.isAnd() ? ConstantFolder.FALSE : ConstantFolder.TRUE;
+        final var result = Registers.name(register);
+        phi(result, skipped.name(), shortCircuit.leftEnd(), right.name(), rightEnd);
         register++;
+        return lastResult(PrimitiveType.BOOLEAN);
     }
 
-    static void neg(Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = xor i1 ")
-                .append(value.name())
-                .append(", 1\n");  // NOT = XOR z 1
+    void xor(Value value1, Value value2) {
+        emit(Opcode.XOR, Registers.name(register), "i1", "xor i1 $0, $1", value1.name(), value2.name());
         register++;
     }
 
-    static void equal_i(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" eq ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
+    void neg(Value value) {
+        // NOT = XOR z 1
+        emit(Opcode.XOR, Registers.name(register), "i1", "xor i1 $0, 1", value.name());
         register++;
     }
 
-    static void equal_f(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" oeq ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
-        register++;
+    void equal_i(Value value1, Value value2) {
+        compare(value1, value2, "eq", value1, value2);
+    }
+
+    void equal_f(Value value1, Value value2) {
+        compare(value1, value2, "oeq", value1, value2);
     }
 
-    static void equal_s(Value value1, Value value2) {
+    // Jednakowe literały są jednym napisem globalnym, więc równe wskaźniki rozstrzygają porównanie bez wywołania strcmp
+    void equal_s(Value value1, Value value2) {
+        final var labelCompare = "streq_cmp_" + logicals;
+        final var labelEnd = "streq_end_" + logicals;
+        logicals++;
+        final var pointerEnd = currentFunction.currentBlock().branchTarget();
+        final var samePointer = Registers.name(register);
+        emit(Opcode.COMPARE, samePointer, "i8*", "icmp eq i8* $0, $1", value1.name(), value2.name());
+        register++;
+        branch(samePointer, labelEnd, labelCompare);
+
+        label(labelCompare);
         final var result = "%result_" + register;
-        CURRENT_TEXT.append(result)
-                .append(" = call i32 @strcmp(")
-                .append(value1.type.llvmType())
-                .append(" ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(")\n");
-
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = icmp eq i32 ")
-                .append(result)
-                .append(", 0\n");
+        call(result, "i32", "@strcmp", "call i32 @strcmp(" + value1.type.llvmType() + " $0, " + value2.type.llvmType() + " $1)",
+                value1.name(), value2.name());
+        final var sameText = Registers.name(register);
+        emit(Opcode.COMPARE, sameText, "i32", "icmp eq i32 $0, 0", result);
+        register++;
+        jump(labelEnd);
+
+        label(labelEnd);
+        phi(Registers.name(register), ConstantFolder.TRUE.name(), pointerEnd, sameText, labelCompare);
         register++;
     }
 
-    static void not_equal_i(Value value1, Value value2) {
+    void not_equal_i(Value value1, Value value2) {
         equal_i(value1, value2);
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append("xor i1 %")
-                .append(register - 1)
-                .append(", 1\n");
-        register++;
+        negateLast();
     }
 
-    static void not_equal_f(Value value1, Value value2) {
+    void not_equal_f(Value value1, Value value2) {
         equal_f(value1, value2);
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append("xor i1 %")
-                .append(register - 1)
-                .append(", 1\n");
-        register++;
+        negateLast();
     }
 
-    static void not_equal_s(Value value1, Value value2) {
+    void not_equal_s(Value value1, Value value2) {
         equal_s(value1, value2);
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = xor i1 %")
-                .append(register - 1)
-                .append(", 1\n");
-        register++;
+        negateLast();
     }
 
-    static void less_i(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" ult ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
+    void less_i(Value value1, Value value2) {
+        compare(value1, value2, "ult", value2, value1);
     }
 
-    static void less_f(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" olt ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
+    void less_f(Value value1, Value value2) {
+        compare(value1, value2, "olt", value2, value1);
     }
 
-    static void greater_i(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" ugt ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
+    void greater_i(Value value1, Value value2) {
+        compare(value1, value2, "ugt", value2, value1);
     }
 
-    static void greater_f(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(value1.type.llvmComparator())
-                .append(" ogt ")
-                .append(value2.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
+    void greater_f(Value value1, Value value2) {
+        compare(value1, value2, "ogt", value2, value1);
     }
 
-    static Value add(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value1) ? "f" : "")
-                .append("add ")
-                .append(value1.type.llvmType())
-                .append(" ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
-        register++;
-        return value1.withName(String.valueOf(register - 1));
+    Value add(Value value1, Value value2) {
+        return arithmetic(Opcode.ADD, isFloatingPoint(value1) ? "fadd" : "add", value1, value1, value2);
     }
 
-    static Value sub(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value1) ? "f" : "")
-                .append("sub ")
-                .append(value1.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
-        return value1.withName(String.valueOf(register - 1));
+    Value sub(Value value1, Value value2) {
+        return arithmetic(Opcode.SUB, isFloatingPoint(value1) ? "fsub" : "sub", value1, value2, value1);
     }
 
-    static Value mult(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value1) ? "f" : "")
-                .append("mul ")
-                .append(value1.type.llvmType())
-                .append(" ")
-                .append(value1.name())
-                .append(", ")
-                .append(value2.name())
-                .append("\n");
-        register++;
-        return value1.withName(String.valueOf(register - 1));
+    Value mult(Value value1, Value value2) {
+        return arithmetic(Opcode.MUL, isFloatingPoint(value1) ? "fmul" : "mul", value1, value1, value2);
     }
 
-    static Value div(Value value1, Value value2) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value1) ? "f" : "s")
-                .append("div ")
-                .append(value1.type.llvmType())
-                .append(" ")
-                .append(value2.name())
-                .append(", ")
-                .append(value1.name())
-                .append("\n");
-        register++;
-        return value1.withName(String.valueOf(register - 1));
+    Value div(Value value1, Value value2) {
+        return arithmetic(Opcode.DIV, isFloatingPoint(value1) ? "fdiv" : "sdiv", value1, value2, value1);
     }
 
-    private static boolean isFloatingPoint(Value value) {
+    private boolean isFloatingPoint(Value value) {
         return value.type == PrimitiveType.FLOAT || value.type == PrimitiveType.DOUBLE;
     }
 
-    static void ext(Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value) ? "fpext" : "sext")
-                .append(" ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(" to ")
-                .append(isFloatingPoint(value) ? "double" : "i64")
-                .append("\n");
-        register++;
+    void ext(Value value) {
+        cast(isFloatingPoint(value) ? "fpext" : "sext", value, isFloatingPoint(value) ? "double" : "i64");
     }
 
-    static void trunc(Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = ")
-                .append(isFloatingPoint(value) ? "fptrunc" : "trunc")
-                .append(" ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(" to ")
-                .append(isFloatingPoint(value) ? "float" : "i32")
-                .append("\n");
-        register++;
+    void trunc(Value value) {
+        cast(isFloatingPoint(value) ? "fptrunc" : "trunc", value, isFloatingPoint(value) ? "float" : "i32");
     }
 
-    static void sitofp(Value value, Type targetType) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = sitofp ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(" to ")
-                .append(targetType.llvmType())
-                .append("\n");
-        register++;
+    void sitofp(Value value, Type targetType) {
+        cast("sitofp", value, targetType.llvmType());
     }
 
-    static void fptosi(Value value, Type targetType) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = fptosi ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(" to ")
-                .append(targetType.llvmType())
-                .append("\n");
-        register++;
+    void fptosi(Value value, Type targetType) {
+        cast("fptosi", value, targetType.llvmType());
     }
 
-    static void allocate_string(String id, int length) {
-        CURRENT_TEXT.append("%")
-                .append(id)
-                .append(" = alloca [")
-                .append(length + 1)
-                .append(" x i8]\n");
-    }
-
-    static void constant_string(String content) {
-        final var length = content.length() + 1;
-        HEADER_TEXT.append("@str")
-                .append(str)
-                .append(" = constant [")
-                .append(length)
-                .append(" x i8] c\"")
-                .append(content)
-                .append("\\00\"\n");
-        final var id = "str" + str;
-        allocate_string(id, (length - 1));
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = bitcast [")
-                .append(length)
-                .append(" x i8]* %")
-                .append(id)
-                .append(" to i8*\n");
-        CURRENT_TEXT.append("call void @llvm.memcpy.p0i8.p0i8.i64(i8* align 1 %")
-                .append(register)
-                .append(", i8* align 1 getelementptr inbounds ([")
-                .append(length)
-                .append(" x i8], [")
-                .append(length)
-                .append(" x i8]* @")
-                .append(id)
-                .append(", i32 0, i32 0), i64 ")
-                .append(length)
-                .append(", i1 false)\n");
-        register++;
-        str++;
+    // Literały są tylko do odczytu (read zawsze pisze do nowego bufora), więc każdy napis trafia do pamięci raz
+    // i jest używany bezpośrednio jako i8*, bez kopii na stosie
+    Constant constant_string(String content) {
+        var name = literals.get(content);
+
+        if (name == null) {
+            name = "@" + functionPrefix + "str" + str;
+            str++;
+            literals.put(content, name);
+            ownGlobals().append(name)
+                    .append(" = private unnamed_addr constant [")
+                    .append(content.length() + 1)
+                    .append(" x i8] c\"")
+                    .append(content)
+                    .append("\\00\"\n");
+        }
+
+        return new Constant(name, PrimitiveType.STRING);
     }
 
-    static void scanf(Value value) {
-        allocate_string("str" + str, value.length);
+    void scanf(Value value) {
+        // Zaległe wyjście musi się pojawić przed czekaniem na wejście, np. pytanie przed odpowiedzią
+        runtimeCall(PrintRuntime.FLUSH, "");
+        // Napisy są wskaźnikami, więc każdy read dostaje nowy bufor na stercie: wspólny bufor na stosie (np. po
+        // przeniesieniu alloca z pętli) zmieniałby napisy przypisane wcześniej innym zmiennym
         declare(value.name, value.type, value.isGlobal);
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds [")
-                .append(value.length + 1)
-                .append(" x i8], [")
-                .append(value.length + 1)
-                .append(" x i8]* %str")
-                .append(str)
-                .append(", i64 0, i64 0\n");
+        call(Registers.name(register), "i8*", "@malloc", "call i8* @malloc(i64 " + (value.length + 1) + ")");
         register++;
-        CURRENT_TEXT.append("store i8* %")
-                .append(register - 1)
-                .append(", i8** ")
-                .append(value.name())
-                .append("\n");
-        str++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = call i32 (i8*, ...) @scanf(i8* getelementptr inbounds ([5 x i8], [5 x i8]* @strs, i32 0, i32 0), i8* %")
-                .append(register - 1)
-                .append(")\n");
+        emit(Opcode.STORE, null, "i8*", "store i8* $0, i8** $1", Registers.name(register - 1), value.name());
+        call(Registers.name(register), "i32", "@scanf",
+                "call i32 (i8*, ...) @scanf(i8* getelementptr inbounds ([5 x i8], [5 x i8]* @strs, i32 0, i32 0), i8* $0)",
+                Registers.name(register - 1));
         register++;
     }
 
-    static void ret(Value value) {
-        CURRENT_TEXT.append("ret ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append("\n");
+    void ret(Value value) {
+        final var type = value.type.llvmType();
+        emit(Opcode.RET, null, type, "ret " + type + " $0", value.name());
     }
 
-    static void defineFunction(Function function) {
-        CURRENT_TEXT.append("define ")
+    void defineFunction(Function function) {
+        functionPrefix = function.name + ".";
+        final var header = new StringBuilder("define ")
                 .append(function.returnType.llvmType())
                 .append(" @")
                 .append(function.name)
@@ -947,165 +557,449 @@ class LLVMGenerator {
         for (var i = 0; i < function.parameters.size(); i++) {
             final var param = function.parameters.get(i);
 
-            CURRENT_TEXT.append(param.type.llvmType())
+            header.append(param.type.llvmType())
                     .append(param.name.equals(Parameter.THIS_PARAM_NAME) ? "*" : "")
                     .append(" %")
                     .append(param.name);
 
             if (i != function.parameters.size() - 1) {
-                CURRENT_TEXT.append(", ");
+                header.append(", ");
             }
         }
 
-        CURRENT_TEXT.append(") {\n");
+        header.append(") {");
+        currentFunction = new IRFunction(function.name, header.toString());
+
+        for (final var param : function.parameters) {
+            currentFunction.parameters.add("%" + param.name);
+        }
     }
 
-    static void closeFunction(Function function) {
+    void closeFunction(Function function) {
         if (function.returnType == PrimitiveType.VOID) {
-            CURRENT_TEXT.append("ret void\n");
+            emit(Opcode.RET, null, "void", "ret void");
         }
 
-        CURRENT_TEXT.append("}\n");
+        runPasses(currentFunction);
+        module.recordReferences(currentFunction);
+        module.functions.add(currentFunction);
     }
 
-    static void callFunction(Function function, List<Value> args) {
-        if (function.returnType != PrimitiveType.VOID) {
-            CURRENT_TEXT.append("%")
-                    .append(register)
-                    .append(" = ");
-        }
-
-        CURRENT_TEXT.append("call ")
-                .append(function.returnType.llvmType())
+    void callFunction(Function function, List<Value> args) {
+        final var returnType = function.returnType.llvmType();
+        final var template = new StringBuilder("call ")
+                .append(returnType)
                 .append(" @")
                 .append(function.name)
                 .append("(");
+        final var operands = new String[args.size()];
 
         for (var i = 0; i < args.size(); i++) {
             final var arg = args.get(i);
             final var isCustomType = arg.type instanceof CustomType;
 
-            CURRENT_TEXT.append(arg.type.llvmType())
+            template.append(arg.type.llvmType())
                     .append(isCustomType ? "*" : "")
-                    .append(" ")
-                    .append(arg.name());
+                    .append(" $")
+                    .append(i);
+            operands[i] = arg.name();
 
             if (i != args.size() - 1) {
-                CURRENT_TEXT.append(", ");
+                template.append(", ");
             }
         }
 
-        CURRENT_TEXT.append(")\n");
+        template.append(")");
+        final var result = function.returnType != PrimitiveType.VOID ? Registers.name(register) : null;
+        call(result, returnType, "@" + function.name, template.toString(), operands);
         register++;
     }
 
-    static void commit() {
-        HEADER_TEXT.append(BUFFER_TEXT);
-        BUFFER_TEXT.setLength(0);
+    // Gotowe funkcje i klasy od razu trafiają do ujścia, w pamięci zostaje tylko to, co jeszcze nie jest zamknięte
+    void commit() {
+        keepInlinable();
+
+        if (isWholeProgram) {
+            spill();
+        } else {
+            write(module.globals);
+
+            for (final var function : module.functions) {
+                writeFunction(function);
+            }
+        }
+
+        module.clear();
+    }
+
+    // Późniejsze wywołania mogą wstawić tylko funkcję, której IR nadal mamy
+    private void keepInlinable() {
+        for (final var pass : passes) {
+            if (pass instanceof InlineFunctions inliner) {
+                for (final var function : module.functions) {
+                    if (inliner.accepts(function)) {
+                        module.keep(function);
+                    }
+                }
+            }
+        }
+    }
+
+    private void spill() {
+        try {
+            if (spilled == null) {
+                spilled = new SpilledBatches();
+            }
+
+            spilled.add(null, module.globals);
+
+            for (final var function : module.functions) {
+                printed.setLength(0);
+                printed.append(function.globals);
+                IRPrinter.print(function, printed);
+                spilled.add(function.name, printed);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    // Wypisujemy tylko funkcje osiągalne z main, więc zamknięte partie czekają do końca kompilacji w pliku tymczasowym
+    void setWholeProgram(boolean isWholeProgram) {
+        this.isWholeProgram = isWholeProgram;
+    }
+
+    void setBoundsChecked(boolean isBoundsChecked) {
+        this.isBoundsChecked = isBoundsChecked;
+    }
+
+    private void writeFunction(IRFunction function) {
+        write(function.globals);
+        printed.setLength(0);
+        IRPrinter.print(function, printed);
+        write(printed);
     }
 
-    static void setMainContext(boolean isMainContext) {
+    // Z deklaracji main zostają tylko zmienne i stałe, do których ktoś się jeszcze odwołuje
+    private void writeUsedGlobals(StringBuilder globals, Set<String> used) {
+        var start = 0;
+
+        while (start < globals.length()) {
+            final var end = globals.indexOf("\n", start) + 1;
+            final var line = globals.substring(start, end);
+            final var nameEnd = line.indexOf(" = ");
+            final var isUnused = line.startsWith("@") && nameEnd > 0 && !used.contains(line.substring(0, nameEnd));
+
+            if (!isUnused) {
+                write(line);
+            }
+
+            start = end;
+        }
+    }
+
+    void setMainContext(boolean isMainContext) {
         if (isMainContext) {
-            CURRENT_TEXT = MAIN_TEXT;
+            currentFunction = mainFunction;
+            restoreMainCounters();
         } else {
-            CURRENT_TEXT = BUFFER_TEXT;
+            resetFunctionCounters();
         }
     }
 
-    public static void defineClass(Clazz clazz) {
-        HEADER_TEXT.append("%")
+    // Każda funkcja ma własną numerację rejestrów, etykiet i napisów, więc jej IR nie zależy od położenia w programie
+    private void resetFunctionCounters() {
+        mainCounters = new Counters(register, str, arr, mat, loops, cur_loops, loop_index, ifs, cur_ifs, if_index, logicals, checks);
+        register = 1;
+        str = 1;
+        arr = 1;
+        mat = 1;
+        loops = 0;
+        cur_loops = 0;
+        loop_index = 0;
+        ifs = 0;
+        cur_ifs = 0;
+        if_index = 0;
+        logicals = 0;
+        checks = 0;
+        mainLiterals = literals;
+        literals = new HashMap<>();
+    }
+
+    private void restoreMainCounters() {
+        register = mainCounters.register();
+        str = mainCounters.str();
+        arr = mainCounters.arr();
+        mat = mainCounters.mat();
+        loops = mainCounters.loops();
+        cur_loops = mainCounters.cur_loops();
+        loop_index = mainCounters.loop_index();
+        ifs = mainCounters.ifs();
+        cur_ifs = mainCounters.cur_ifs();
+        if_index = mainCounters.if_index();
+        logicals = mainCounters.logicals();
+        checks = mainCounters.checks();
+        literals = mainLiterals;
+        functionPrefix = "";
+    }
+
+    LLVMCache.Fragment fragment() {
+        return new LLVMCache.Fragment(currentFunction.globals.toString(), IRPrinter.print(currentFunction));
+    }
+
+    void emitFragment(String name, LLVMCache.Fragment fragment) {
+        final var function = IRFunction.opaque(name, fragment.header(), fragment.body());
+        module.recordReferences(function);
+        module.functions.add(function);
+    }
+
+    public void defineClass(Clazz clazz) {
+        module.globals.append("%")
                 .append(clazz.name)
                 .append(" = type {\n");
 
         var fieldsCount = 0;
 
         for (final var field : clazz.fields.entrySet()) {
-            HEADER_TEXT.append(field.getValue().type.llvmType())
+            module.globals.append(field.getValue().type.llvmType())
                     .append(fieldsCount == clazz.fields.size() - 1 ? "\n" : ",\n");
             fieldsCount++;
         }
 
-        HEADER_TEXT.append("}\n");
+        module.globals.append("}\n");
     }
 
-    public static void newObject(String id, Clazz clazz) {
-        CURRENT_TEXT.append("%")
-                .append(id)
-                .append(" = alloca %")
-                .append(clazz.name)
-                .append("\n");
+    public void newObject(String id, Clazz clazz) {
+        final var type = clazz.type.llvmType();
+        emit(Opcode.ALLOCA, "%" + id, type, "alloca " + type);
         register++;
     }
 
-    public static void assignField(Clazz clazz, int field, String objectId, Value value) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds %")
-                .append(clazz.name)
-                .append(", %")
-                .append(clazz.name)
-                .append("* %")
-                .append(objectId)
-                .append(", i32 0, i32 ")
-                .append(field)
-                .append("\n");
+    public void assignField(Clazz clazz, int field, String objectId, Value value) {
+        fieldPointer(clazz, field, objectId);
         register++;
-        CURRENT_TEXT.append("store ")
-                .append(value.type.llvmType())
-                .append(" ")
-                .append(value.name())
-                .append(", ")
-                .append(value.type.llvmType())
-                .append("* %")
-                .append(register - 1)
-                .append("\n");
+        store(value, Registers.name(register - 1));
     }
 
-    public static void readField(Clazz clazz, int field, Type fieldType, String objectId) {
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = getelementptr inbounds %")
-                .append(clazz.name)
-                .append(", %")
-                .append(clazz.name)
-                .append("* %")
-                .append(objectId)
-                .append(", i32 0, i32 ")
-                .append(field)
-                .append("\n");
+    public void readField(Clazz clazz, int field, Type fieldType, String objectId) {
+        fieldPointer(clazz, field, objectId);
         register++;
-        CURRENT_TEXT.append("%")
-                .append(register)
-                .append(" = load ")
-                .append(fieldType.llvmType())
-                .append(", ")
-                .append(fieldType.llvmType())
-                .append("* %")
-                .append(register - 1)
-                .append("\n");
+        loadFrom(fieldType.llvmType(), Registers.name(register - 1));
+        register++;
+    }
+
+    void finish() {
+        runtimeCall(PrintRuntime.FLUSH, "");
+        emit(Opcode.RET, null, "i32", "ret i32 0");
+        runPasses(mainFunction);
+        module.recordReferences(mainFunction);
+        module.functions.add(mainFunction);
+
+        if (!isWholeProgram) {
+            commit();
+            write(PrintRuntime.definitions(module.allReferences()));
+            return;
+        }
+
+        final var reachable = module.reachableFunctions(mainFunction);
+        final var used = module.functionGlobals(mainFunction);
+        used.addAll(IRModule.references(mainFunction));
+
+        if (spilled != null) {
+            try {
+                spilled.forEach((name, text) -> {
+                    if (name == null) {
+                        writeUsedGlobals(text, used);
+                    } else if (reachable.contains("@" + name)) {
+                        write(text);
+                    }
+                });
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+
+            close();
+        }
+
+        writeUsedGlobals(module.globals, used);
+
+        for (final var function : module.functions) {
+            if (function == mainFunction || reachable.contains("@" + function.name)) {
+                writeFunction(function);
+            }
+        }
+
+        module.clear();
+        write(PrintRuntime.definitions(used));
+    }
+
+    // Usuwa plik tymczasowy także wtedy, gdy kompilacja przerwała się przed finish
+    void close() {
+        if (spilled == null) {
+            return;
+        }
+
+        try {
+            spilled.close();
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        } finally {
+            spilled = null;
+        }
+    }
+
+    // Funkcję, którą przebiegi wstawią w miejsca wywołań, trzeba mieć jako IR, a nie tekst z pamięci podręcznej
+    boolean isInlinable(LLVMCache.Fragment fragment) {
+        for (final var pass : passes) {
+            if (pass instanceof InlineFunctions inliner && inliner.accepts(fragment.body())) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    void addPass(IRPass pass) {
+        passes.add(pass);
+    }
+
+    private void runPasses(IRFunction function) {
+        // LLVM nie przyjmuje instrukcji za terminatorem bloku, a po ich usunięciu numery rejestrów mają luki
+        if (function.truncateAfterTerminators()) {
+            new RenumberRegisters().run(function, module);
+        }
+
+        function.hoistAllocas();
+        function.computeEdges();
+
+        for (final var pass : passes) {
+            pass.run(function, module);
+        }
+    }
+
+    private static String arrayType(int length, Type elementType) {
+        return "[" + length + " x " + elementType.llvmType() + "]";
+    }
+
+    // Macierz to jeden ciągły blok wierszy, element wskazuje jeden getelementptr z dwoma indeksami
+    private static String matrixType(Matrix matrix) {
+        return "[" + matrix.length + " x " + arrayType(matrix.rowLength, matrix.type) + "]";
+    }
+
+    private void elementPointer(String aggregateType, String pointer, String index) {
+        emit(Opcode.GETELEMENTPTR, Registers.name(register), aggregateType,
+                "getelementptr inbounds " + aggregateType + ", " + aggregateType + "* $0, i64 0, i64 $1", pointer, index);
+    }
+
+    private void matrixElementPointer(Matrix matrix, String rowIndex, String columnIndex) {
+        final var type = matrixType(matrix);
+        emit(Opcode.GETELEMENTPTR, Registers.name(register), type,
+                "getelementptr inbounds " + type + ", " + type + "* $0, i64 0, i64 $1, i64 $2", matrix.name(), rowIndex, columnIndex);
+    }
+
+    private void fieldPointer(Clazz clazz, int field, String objectId) {
+        final var type = clazz.type.llvmType();
+        emit(Opcode.GETELEMENTPTR, Registers.name(register), type, "getelementptr inbounds " + type + ", " + type + "* $0, i32 0, i32 " + field,
+                "%" + objectId);
+    }
+
+    private void loadFrom(String type, String pointer) {
+        final var template = loadTemplates.computeIfAbsent(type, key -> "load " + key + ", " + key + "* $0");
+        emit(Opcode.LOAD, Registers.name(register), type, template, pointer);
+    }
+
+    private void store(Value value, String pointer) {
+        final var type = value.type.llvmType();
+        final var template = storeTemplates.computeIfAbsent(type, key -> "store " + key + " $0, " + key + "* $1");
+        emit(Opcode.STORE, null, type, template, value.name(), pointer);
+    }
+
+    private void compare(Value value1, Value value2, String condition, Value left, Value right) {
+        final var type = value2.type.llvmType();
+        emit(Opcode.COMPARE, Registers.name(register), type, value1.type.llvmComparator() + " " + condition + " " + type + " $0, $1",
+                left.name(), right.name());
+        register++;
+    }
+
+    private void negateLast() {
+        emit(Opcode.XOR, Registers.name(register), "i1", "xor i1 $0, 1", Registers.name(register - 1));
         register++;
     }
 
-    static String generate() {
-        return "declare i32 @printf(i8*, ...)\n" +
-                "declare i32 @sprintf(i8*, i8*, ...)\n" +
-                "declare i8* @strcpy(i8*, i8*)\n" +
-                "declare i8* @strcat(i8*, i8*)\n" +
-                "declare i32 @scanf(i8*, ...)\n" +
-                "declare i32 @strcmp(i8*, i8*)\n" +
-                "declare void @llvm.memcpy.p0i8.p0i8.i64(i8* noalias nocapture writeonly, i8* noalias nocapture readonly, i64, i1 immarg)\n" +
-                "@strps = constant [4 x i8] c\"%s\\0A\\00\"\n" +
-                "@strpi = constant [4 x i8] c\"%d\\0A\\00\"\n" +
-                "@strpd = constant [4 x i8] c\"%f\\0A\\00\"\n" +
-                "@strs = constant [5 x i8] c\"%10s\\00\"\n" +
-                "@strspi = constant [3 x i8] c\"%d\\00\"\n" +
-                "@strpb = constant [4 x i8] c\"%s\\0A\\00\"\n" +
-                "@truetext = constant [5 x i8] c\"true\\00\"\n" +
-                "@falsetext = constant [6 x i8] c\"false\\00\"\n" +
-                HEADER_TEXT +
-                "define i32 @main() nounwind{\n" +
-                MAIN_TEXT +
-                "ret i32 0 }\n";
+    private Value arithmetic(Opcode opcode, String instruction, Value value, Value left, Value right) {
+        final var type = value.type.llvmType();
+        final var templates = arithmeticTemplates.get(opcode);
+        var template = templates.get(type);
+
+        if (template == null) {
+            template = instruction + " " + type + " $0, $1";
+            templates.put(type, template);
+        }
+
+        emit(opcode, Registers.name(register), type, template, left.name(), right.name());
+        register++;
+        return new Register(register - 1, value.type, value.length);
+    }
+
+    private void cast(String instruction, Value value, String targetType) {
+        emit(Opcode.CAST, Registers.name(register), targetType, instruction + " " + value.type.llvmType() + " $0 to " + targetType, value.name());
+        register++;
+    }
+
+    private void emit(Opcode opcode, String result, String type, String template, String... operands) {
+        currentFunction.append(new Instruction(opcode, result, type, template, operands, Instruction.NONE, null));
+    }
+
+    private void call(String result, String type, String callee, String template, String... operands) {
+        currentFunction.append(new Instruction(Opcode.CALL, result, type, template, operands, Instruction.NONE, callee));
+    }
+
+    private void jump(String target) {
+        currentFunction.append(new Instruction(Opcode.BR, null, "void", "br label %#0", Instruction.NONE,
+                new String[]{target}, null));
+    }
+
+    private void branch(String condition, String trueTarget, String falseTarget) {
+        currentFunction.append(new Instruction(Opcode.BR, null, "void", "br i1 $0, label %#0, label %#1",
+                new String[]{condition}, new String[]{trueTarget, falseTarget}, null));
+    }
+
+    // Warunek znany w czasie kompilacji daje zwykły skok, a martwą gałąź usuwa później RemoveUnreachableBlocks
+    private void branch(Value condition, String trueTarget, String falseTarget) {
+        if (condition instanceof Constant constant) {
+            jump(ConstantFolder.isTrue(constant) ? trueTarget : falseTarget);
+            return;
+        }
+
+        branch(condition.name(), trueTarget, falseTarget);
+    }
+
+    private void phi(String result, String value1, String label1, String value2, String label2) {
+        currentFunction.append(new Instruction(Opcode.PHI, result, "i1", "phi i1 [ $0, %#0 ], [ $1, %#1 ]",
+                new String[]{value1, value2}, new String[]{label1, label2}, null));
+    }
+
+    private void label(String label) {
+        currentFunction.startBlock(label);
+    }
+
+    private StringBuilder ownGlobals() {
+        return currentFunction == mainFunction ? module.globals : currentFunction.globals;
+    }
+
+    private void write(CharSequence text) {
+        try {
+            sink.write(text);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+    }
+
+    private record Counters(int register, int str, int arr, int mat, int loops, int cur_loops, int loop_index,
+                            int ifs, int cur_ifs, int if_index, int logicals, int checks) {
+    }
+
+    record ShortCircuit(Value left, boolean isAnd, String leftEnd, String rightLabel, String endLabel) {
     }
 
 }
@@ -0,0 +1,63 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+@FunctionalInterface
+public interface LLVMSink extends Closeable {
+
+    int BUFFER_SIZE = 1 << 16;
+
+    void write(CharSequence text) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+
+    static LLVMSink toFile(Path path) throws IOException {
+        final var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return toWriter(new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE));
+    }
+
+    static LLVMSink toStream(OutputStream stream) {
+        return toWriter(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE));
+    }
+
+    static LLVMSink toWriter(Writer writer) {
+        return new LLVMSink() {
+
+            // Writer.append robi kopię całego tekstu przez toString, więc bufory przepisujemy kawałkami
+            private final char[] chunk = new char[BUFFER_SIZE];
+
+            @Override
+            public void write(CharSequence text) throws IOException {
+                if (!(text instanceof StringBuilder builder)) {
+                    writer.append(text);
+                    return;
+                }
+
+                for (var start = 0; start < builder.length(); start += chunk.length) {
+                    final var end = Math.min(builder.length(), start + chunk.length);
+                    builder.getChars(start, end, chunk, 0);
+                    writer.write(chunk, 0, end - start);
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                writer.close();
+            }
+
+        };
+    }
+
+}
@@ -0,0 +1,26 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import pl.edu.pw.ee.HolyJavaParser;
+
+class LLVMTreeWalker extends ParseTreeWalker {
+
+    @Override
+    public void walk(ParseTreeListener listener, ParseTree tree) {
+        if (isCachedFunctionBody(listener, tree)) {
+            return;
+        }
+
+        super.walk(listener, tree);
+    }
+
+    private static boolean isCachedFunctionBody(ParseTreeListener listener, ParseTree tree) {
+        return tree instanceof HolyJavaParser.StatementblockContext
+                && tree.getParent() instanceof HolyJavaParser.FundefContext
+                && listener instanceof LLVMActions actions
+                && actions.isFunctionBodyCached();
+    }
+
+}
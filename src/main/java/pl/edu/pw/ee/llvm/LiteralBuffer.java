@@ -0,0 +1,106 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+// Elementy literału tablicy lub macierzy w jednym rosnącym long[]: stałe liczbowe i logiczne wprost (zmiennoprzecinkowe
+// jako bity double), a napisy i wartości liczone w programie jako indeks do listy obiektów, których jest zwykle mało
+final class LiteralBuffer {
+
+    private static final int INITIAL_CAPACITY = 16;
+    private long[] elements = new long[INITIAL_CAPACITY];
+    private final BitSet isReference = new BitSet();
+    private final List<Value> references = new ArrayList<>();
+    private int size;
+    private int constants;
+
+    void add(Value value) {
+        final var number = value instanceof Constant ? number(value) : null;
+
+        if (number == null) {
+            isReference.set(size);
+            append(references.size());
+            references.add(value);
+        } else {
+            append(number);
+        }
+
+        if (value instanceof Constant) {
+            constants++;
+        }
+    }
+
+    // Dopisuje wiersz macierzy, przenosząc indeksy jego obiektów na naszą listę
+    void addAll(LiteralBuffer other) {
+        for (var index = 0; index < other.size; index++) {
+            if (other.isReference.get(index)) {
+                isReference.set(size);
+                append(references.size());
+                references.add(other.references.get((int) other.elements[index]));
+            } else {
+                append(other.elements[index]);
+            }
+        }
+
+        constants += other.constants;
+    }
+
+    private void append(long element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, elements.length * 2);
+        }
+
+        elements[size] = element;
+        size++;
+    }
+
+    private static Long number(Value value) {
+        if (!(value.type instanceof PrimitiveType type)) {
+            return null;
+        }
+
+        return switch (type) {
+            case INT, LONG, BOOLEAN -> ConstantFolder.integerValue(value);
+            case FLOAT, DOUBLE -> {
+                final var floating = ConstantFolder.floatingValue(value);
+                yield floating == null ? null : Double.doubleToRawLongBits(floating);
+            }
+            default -> null;
+        };
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean hasConstant() {
+        return constants > 0;
+    }
+
+    // Wartość liczona w programie, którą trzeba zapisać osobno, albo null dla stałej
+    Value computed(int index) {
+        if (!isReference.get(index)) {
+            return null;
+        }
+
+        final var value = references.get((int) elements[index]);
+        return value instanceof Constant ? null : value;
+    }
+
+    // Zapis elementu w inicjalizatorze LLVM; miejsce wartości liczonej w programie wypełnia zero
+    void appendText(int index, PrimitiveType type, StringBuilder text) {
+        if (isReference.get(index)) {
+            final var value = references.get((int) elements[index]);
+            text.append(value instanceof Constant ? value.name() : type.llvmZeroValue());
+            return;
+        }
+
+        switch (type) {
+            case FLOAT, DOUBLE -> text.append(ConstantFolder.floatingText(Double.longBitsToDouble(elements[index]), type));
+            default -> text.append(elements[index]);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedCharStream implements CharStream {
+
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+    private final ByteBuffer buffer;
+    private final int size;
+    private final String sourceName;
+    private int position = 0;
+
+    private MappedCharStream(ByteBuffer buffer, String sourceName) {
+        this.buffer = buffer;
+        this.size = buffer.limit();
+        this.sourceName = sourceName;
+    }
+
+    // Plik ASCII lekser czyta bezpośrednio z mapowanej pamięci, inne kodowania dekodujemy jak dotąd
+    static CharStream fromPath(Path path) throws IOException {
+        try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final var fileSize = channel.size();
+
+            if (fileSize > Integer.MAX_VALUE) {
+                throw new IOException("source file too large: " + path);
+            }
+
+            final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+
+            if (!isAscii(buffer)) {
+                return CharStreams.fromPath(path, StandardCharsets.UTF_8);
+            }
+
+            return new MappedCharStream(buffer, path.toString());
+        }
+    }
+
+    private static boolean isAscii(ByteBuffer buffer) {
+        final var size = buffer.limit();
+        var index = 0;
+
+        for (; index + Long.BYTES <= size; index += Long.BYTES) {
+            if ((buffer.getLong(index) & NON_ASCII_MASK) != 0) {
+                return false;
+            }
+        }
+
+        for (; index < size; index++) {
+            if (buffer.get(index) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void consume() {
+        if (position >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+
+        position++;
+    }
+
+    @Override
+    public int LA(int offset) {
+        if (offset == 0) {
+            return 0;
+        }
+
+        final var index = offset > 0 ? position + offset - 1 : position + offset;
+
+        if (index < 0 || index >= size) {
+            return IntStream.EOF;
+        }
+
+        return buffer.get(index);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return position;
+    }
+
+    @Override
+    public void seek(int index) {
+        position = index;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        final var start = Math.min(interval.a, size);
+        final var length = Math.min(interval.b - interval.a + 1, size - start);
+
+        if (length <= 0) {
+            return "";
+        }
+
+        final var bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+
+}
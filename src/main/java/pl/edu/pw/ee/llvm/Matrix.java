@@ -1,11 +1,9 @@
 package pl.edu.pw.ee.llvm;
 
-import java.util.LinkedList;
-import java.util.List;
-
 public class Matrix extends Value {
 
-    public List<Array> rows = new LinkedList<>();
+    // Elementy literału wiersz po wierszu, liczba wierszy to length
+    public final LiteralBuffer values = new LiteralBuffer();
     public int rowLength = 0;
 
     public Matrix(String name, PrimitiveType type, int length, boolean isGlobal) {
@@ -0,0 +1,111 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// Strumieniuje moduł prosto na wejście opt, a jego bitcode rurą do clang, który generuje kod i linkuje przez lld,
+// więc między kompilatorem a plikiem wynikowym nie powstaje żaden plik pośredni
+final class NativeBuild implements LLVMSink {
+
+    private final List<String> tools;
+    private final List<Process> processes;
+    private final LLVMSink input;
+    private boolean isFinished;
+
+    private NativeBuild(List<String> tools, List<Process> processes) {
+        this.tools = tools;
+        this.processes = processes;
+        this.input = LLVMSink.toStream(processes.getFirst().getOutputStream());
+    }
+
+    static NativeBuild start(CompilerOptions options, Path output) throws IOException {
+        final List<ProcessBuilder> pipeline = new ArrayList<>();
+        final var level = options.optimizationLevel;
+        final var isLinkTimeOptimized = options.linkTimeOptimization;
+
+        // Przy -O0 opt nic by nie zrobił, więc clang czyta tekst modułu bezpośrednio
+        if (level != OptimizationLevel.O0) {
+            pipeline.add(new ProcessBuilder(tool(options, "opt"), "-passes=" + level.passes(isLinkTimeOptimized), "-o", "-", "-"));
+        }
+
+        final List<String> clang = new ArrayList<>(List.of(tool(options, "clang"), "-x", "ir", "-", level.flag()));
+
+        // Moduł jest już zoptymalizowany przez opt, clang tylko generuje kod
+        if (level != OptimizationLevel.O0) {
+            clang.addAll(List.of("-Xclang", "-disable-llvm-passes"));
+        }
+
+        if (isLinkTimeOptimized) {
+            clang.add("-flto");
+        }
+
+        if (options.nativeOutput == NativeOutput.OBJECT) {
+            clang.add("-c");
+        } else {
+            clang.add("-fuse-ld=lld");
+        }
+
+        clang.addAll(List.of("-o", output.toString()));
+        pipeline.add(new ProcessBuilder(clang));
+
+        for (final var builder : pipeline) {
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+
+        pipeline.getLast().redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        final var tools = pipeline.stream().map(builder -> builder.command().getFirst()).toList();
+        return new NativeBuild(tools, ProcessBuilder.startPipeline(pipeline));
+    }
+
+    private static String tool(CompilerOptions options, String name) {
+        return options.llvmDirectory == null ? name : options.llvmDirectory.resolve(name).toString();
+    }
+
+    @Override
+    public void write(CharSequence text) throws IOException {
+        input.write(text);
+    }
+
+    // Zamyka wejście potoku i czeka na wszystkie narzędzia; niezerowy kod wyjścia to błąd kompilacji
+    void finish() {
+        if (isFinished) {
+            return;
+        }
+
+        isFinished = true;
+
+        try {
+            input.close();
+
+            for (var i = 0; i < processes.size(); i++) {
+                final var exitCode = processes.get(i).waitFor();
+
+                if (exitCode != 0) {
+                    throw new IOException(tools.get(i) + " exited with code " + exitCode);
+                }
+            }
+        } catch (IOException exception) {
+            abort();
+            throw new UncheckedIOException(exception);
+        } catch (InterruptedException exception) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(exception);
+        }
+    }
+
+    // Po błędzie kompilacji niepełny moduł nie może trafić do narzędzi
+    void abort() {
+        isFinished = true;
+        processes.forEach(Process::destroyForcibly);
+    }
+
+    @Override
+    public void close() {
+        finish();
+    }
+
+}
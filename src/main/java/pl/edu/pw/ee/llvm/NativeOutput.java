@@ -0,0 +1,17 @@
+package pl.edu.pw.ee.llvm;
+
+public enum NativeOutput {
+    EXECUTABLE(""),
+    OBJECT(".o");
+
+    private final String extension;
+
+    NativeOutput(String extension) {
+        this.extension = extension;
+    }
+
+    String extension() {
+        return extension;
+    }
+
+}
@@ -0,0 +1,32 @@
+package pl.edu.pw.ee.llvm;
+
+enum Opcode {
+    ALLOCA,
+    LOAD,
+    STORE,
+    GETELEMENTPTR,
+    ADD,
+    SUB,
+    MUL,
+    DIV,
+    AND,
+    OR,
+    XOR,
+    COMPARE,
+    CAST,
+    SELECT,
+    CALL,
+    PHI,
+    BR,
+    RET,
+    UNREACHABLE;
+
+    boolean isTerminator() {
+        return this == BR || this == RET || this == UNREACHABLE;
+    }
+
+    boolean hasSideEffects() {
+        return this == STORE || this == CALL || isTerminator();
+    }
+
+}
@@ -0,0 +1,31 @@
+package pl.edu.pw.ee.llvm;
+
+public enum OptimizationLevel {
+    O0,
+    O1,
+    O2,
+    O3,
+    Os;
+
+    private static final OptimizationLevel[] VALUES = values();
+
+    public static OptimizationLevel fromFlag(String flag) {
+        for (final var level : VALUES) {
+            if (flag.equals("-" + level.name())) {
+                return level;
+            }
+        }
+
+        return null;
+    }
+
+    String flag() {
+        return "-" + name();
+    }
+
+    // Potok nowego menedżera przebiegów; przy LTO tylko część przed linkowaniem, resztę robi linker
+    String passes(boolean isLinkTimeOptimized) {
+        return (isLinkTimeOptimized ? "lto-pre-link<" : "default<") + name() + ">";
+    }
+
+}
@@ -0,0 +1,68 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+class ParserProfileReport {
+
+    private static final String ROW_FORMAT = "%-22s %8s %12s %10s %12s %10s %12s %10s %8s%n";
+
+    private ParserProfileReport() {
+    }
+
+    static String create(Parser parser) {
+        final var parseInfo = parser.getParseInfo();
+        final var decisions = Arrays.stream(parseInfo.getDecisionInfo())
+                .filter(decision -> decision.invocations > 0)
+                .sorted(Comparator.comparingLong((DecisionInfo decision) -> decision.timeInPrediction).reversed())
+                .toList();
+        final var report = new StringBuilder();
+        report.append(String.format("adaptivePredict: %.3f ms total, %d SLL and %d LL lookahead ops, %d decisions fell back to LL%n",
+                parseInfo.getTotalTimeInPrediction() / 1_000_000.0, parseInfo.getTotalSLLLookaheadOps(),
+                parseInfo.getTotalLLLookaheadOps(), parseInfo.getLLDecisions().size()));
+
+        report.append(String.format("%nper rule (max lookahead in parentheses):%n"));
+        report.append(String.format(ROW_FORMAT, "rule", "", "invocations", "time[ms]", "SLL look", "(max)", "LL look", "fallbacks", "ambig"));
+        final Map<String, DecisionInfo> rules = new LinkedHashMap<>();
+
+        for (final var decision : decisions) {
+            final var total = rules.computeIfAbsent(ruleName(parser, decision), rule -> new DecisionInfo(-1));
+            total.invocations += decision.invocations;
+            total.timeInPrediction += decision.timeInPrediction;
+            total.SLL_TotalLook += decision.SLL_TotalLook;
+            total.SLL_MaxLook = Math.max(total.SLL_MaxLook, decision.SLL_MaxLook);
+            total.LL_TotalLook += decision.LL_TotalLook;
+            total.LL_MaxLook = Math.max(total.LL_MaxLook, decision.LL_MaxLook);
+            total.LL_Fallback += decision.LL_Fallback;
+            total.ambiguities.addAll(decision.ambiguities);
+        }
+
+        rules.forEach((rule, total) -> appendRow(report, rule, "", total));
+
+        report.append(String.format("%nper decision:%n"));
+        report.append(String.format(ROW_FORMAT, "rule", "decision", "invocations", "time[ms]", "SLL look", "(max)", "LL look", "fallbacks", "ambig"));
+
+        for (final var decision : decisions) {
+            appendRow(report, ruleName(parser, decision), String.valueOf(decision.decision), decision);
+        }
+
+        return report.toString();
+    }
+
+    private static void appendRow(StringBuilder report, String rule, String decision, DecisionInfo info) {
+        report.append(String.format(ROW_FORMAT, rule, decision, info.invocations,
+                String.format("%.3f", info.timeInPrediction / 1_000_000.0), info.SLL_TotalLook, "(" + info.SLL_MaxLook + ")",
+                info.LL_TotalLook + " (" + info.LL_MaxLook + ")", info.LL_Fallback, info.ambiguities.size()));
+    }
+
+    private static String ruleName(Parser parser, DecisionInfo decision) {
+        final var state = parser.getATN().getDecisionState(decision.decision);
+        return parser.getRuleNames()[state.ruleIndex];
+    }
+
+}
@@ -1,29 +1,38 @@
 package pl.edu.pw.ee.llvm;
 
 public enum PrimitiveType implements Type {
-    INT("i32", "strpi", "0", "icmp"),
-    LONG("i64", "strpi", "0", "icmp"),
-    FLOAT("float", "strpd", "0.0", "fcmp"),
-    DOUBLE("double", "strpd", "0.0", "fcmp"),
-    STRING("i8*", "strps", "null", ""),
-    BOOLEAN("i1", "strpb", "0", "icmp"),
-    VOID("void", "", "", ""),
-    UNKNOWN("", "", "", "");
+    INT("i32", "i32", "0", "icmp", 4),
+    LONG("i64", "i64", "0", "icmp", 8),
+    FLOAT("float", "float", "0.0", "fcmp", 4),
+    DOUBLE("double", "double", "0.0", "fcmp", 8),
+    STRING("i8*", "str", "null", "", 8),
+    BOOLEAN("i1", "i1", "0", "icmp", 1),
+    VOID("void", "", "", "", 0),
+    UNKNOWN("", "", "", "", 0);
 
+    private static final PrimitiveType[] VALUES = values();
     private final String llvmType;
-    private final String llvmPrintPattern;
+    private final String printSuffix;
     private final String llvmZeroValue;
     private final String llvmComparator;
+    // Rozmiar elementu tablicy w bajtach (i1 zajmuje w pamięci cały bajt)
+    private final int size;
 
-    PrimitiveType(String llvmType, String llvmPrintPattern, String llvmZeroValue, String llvmComparator) {
+    PrimitiveType(String llvmType, String printSuffix, String llvmZeroValue, String llvmComparator, int size) {
         this.llvmType = llvmType;
-        this.llvmPrintPattern = llvmPrintPattern;
+        this.printSuffix = printSuffix;
         this.llvmZeroValue = llvmZeroValue;
         this.llvmComparator = llvmComparator;
+        this.size = size;
     }
 
     public static PrimitiveType fromKeyword(String keyword) {
-        for (final var type : PrimitiveType.values()) {
+        // W języku typ logiczny to bool
+        if (keyword.equals("bool")) {
+            return BOOLEAN;
+        }
+
+        for (final var type : VALUES) {
             if (type.name().equalsIgnoreCase(keyword)) {
                 return type;
             }
@@ -43,12 +52,16 @@ public enum PrimitiveType implements Type {
     }
 
     @Override
-    public String llvmPrintPattern() {
-        return llvmPrintPattern;
+    public String printSuffix() {
+        return printSuffix;
     }
 
     @Override
     public String llvmZeroValue() {
         return llvmZeroValue;
     }
+
+    public int size() {
+        return size;
+    }
 }
@@ -0,0 +1,324 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Wypisywanie bez printf: wartości formatujemy do dużego bufora, który trafia na stdout jednym write przy zapełnieniu,
+// przed read i przy wyjściu z main. Do programu dołączamy tylko funkcje, do których się odwołuje, razem z zależnościami.
+final class PrintRuntime {
+
+    static final String FLUSH = "@hj.flush";
+    static final String FAIL_BOUNDS = "@hj.fail.bounds";
+    private static final String PRINT = "@hj.print.";
+    private static final int BUFFER_SIZE = 65536;
+    // Najdłuższy double w formacie %f (308 cyfr części całkowitej, znak, kropka i 6 cyfr) z zapasem
+    private static final int DOUBLE_TEXT_SIZE = 330;
+    private static final List<String> SUFFIXES = List.of("i32", "i64", "float", "double", "i1", "str");
+    private static final Map<String, Definition> DEFINITIONS = new LinkedHashMap<>();
+
+    static {
+        define("@write", "declare i64 @write(i32, i8*, i64)\n");
+        define("@strlen", "declare i64 @strlen(i8*)\n");
+        define("@snprintf", "declare i32 @snprintf(i8*, i64, i8*, ...)\n");
+        define("@abort", "declare void @abort() noreturn nounwind\n");
+        define("@hj.out", """
+                @hj.out = internal global [{size} x i8] zeroinitializer
+                @hj.out.length = internal global i64 0
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)));
+        define("@hj.separator", "@hj.separator = private unnamed_addr constant [3 x i8] c\", \\00\"\n");
+        define("@hj.format.double", "@hj.format.double = private unnamed_addr constant [3 x i8] c\"%f\\00\"\n");
+        define("@hj.bounds.text", """
+                @hj.bounds.text = private unnamed_addr constant [13 x i8] c"error: index "
+                @hj.bounds.length.text = private unnamed_addr constant [26 x i8] c" out of bounds for length "
+                """);
+
+        define("@hj.write.all", """
+                define internal void @hj.write.all(i32 %descriptor, i8* %data, i64 %length) {
+                entry:
+                br label %loop
+                loop:
+                %offset = phi i64 [ 0, %entry ], [ %next, %write ]
+                %left = sub i64 %length, %offset
+                %done = icmp sle i64 %left, 0
+                br i1 %done, label %exit, label %write
+                write:
+                %from = getelementptr inbounds i8, i8* %data, i64 %offset
+                %written = call i64 @write(i32 %descriptor, i8* %from, i64 %left)
+                %failed = icmp slt i64 %written, 1
+                %next = add i64 %offset, %written
+                br i1 %failed, label %exit, label %loop
+                exit:
+                ret void
+                }
+                """, "@write");
+        define(FLUSH, """
+                define internal void @hj.flush() {
+                %length = load i64, i64* @hj.out.length
+                store i64 0, i64* @hj.out.length
+                call void @hj.write.all(i32 1, i8* getelementptr inbounds ([{size} x i8], [{size} x i8]* @hj.out, i64 0, i64 0), i64 %length)
+                ret void
+                }
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)), "@hj.out", "@hj.write.all");
+        define("@hj.put", """
+                define internal void @hj.put(i8* %data, i64 %length) {
+                entry:
+                %used = load i64, i64* @hj.out.length
+                %total = add i64 %used, %length
+                %fits = icmp ule i64 %total, {size}
+                br i1 %fits, label %copy, label %flush
+                flush:
+                call void @hj.flush()
+                %large = icmp ugt i64 %length, {size}
+                br i1 %large, label %direct, label %copy
+                direct:
+                call void @hj.write.all(i32 1, i8* %data, i64 %length)
+                ret void
+                copy:
+                %start = phi i64 [ %used, %entry ], [ 0, %flush ]
+                %target = getelementptr inbounds [{size} x i8], [{size} x i8]* @hj.out, i64 0, i64 %start
+                call void @llvm.memcpy.p0i8.p0i8.i64(i8* align 1 %target, i8* align 1 %data, i64 %length, i1 false)
+                %end = add i64 %start, %length
+                store i64 %end, i64* @hj.out.length
+                ret void
+                }
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)), "@hj.out", FLUSH, "@hj.write.all");
+        define("@hj.putc", """
+                define internal void @hj.putc(i8 %character) {
+                entry:
+                %used = load i64, i64* @hj.out.length
+                %full = icmp eq i64 %used, {size}
+                br i1 %full, label %flush, label %store
+                flush:
+                call void @hj.flush()
+                br label %store
+                store:
+                %at = phi i64 [ %used, %entry ], [ 0, %flush ]
+                %target = getelementptr inbounds [{size} x i8], [{size} x i8]* @hj.out, i64 0, i64 %at
+                store i8 %character, i8* %target
+                %next = add i64 %at, 1
+                store i64 %next, i64* @hj.out.length
+                ret void
+                }
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)), "@hj.out", FLUSH);
+
+        // Cyfry zapisujemy od końca do bufora na stosie, reszta z dzielenia liczby ujemnej jest ujemna
+        define("@hj.put.i64", """
+                define internal void @hj.put.i64(i64 %value) {
+                entry:
+                %digits = alloca [20 x i8]
+                %negative = icmp slt i64 %value, 0
+                br label %loop
+                loop:
+                %rest = phi i64 [ %value, %entry ], [ %quotient, %loop ]
+                %position = phi i64 [ 20, %entry ], [ %index, %loop ]
+                %quotient = sdiv i64 %rest, 10
+                %remainder = srem i64 %rest, 10
+                %negated = sub i64 0, %remainder
+                %isNegativeDigit = icmp slt i64 %remainder, 0
+                %magnitude = select i1 %isNegativeDigit, i64 %negated, i64 %remainder
+                %digit = trunc i64 %magnitude to i8
+                %character = add i8 %digit, 48
+                %index = sub i64 %position, 1
+                %slot = getelementptr inbounds [20 x i8], [20 x i8]* %digits, i64 0, i64 %index
+                store i8 %character, i8* %slot
+                %more = icmp ne i64 %quotient, 0
+                br i1 %more, label %loop, label %sign
+                sign:
+                br i1 %negative, label %minus, label %emit
+                minus:
+                call void @hj.putc(i8 45)
+                br label %emit
+                emit:
+                %first = getelementptr inbounds [20 x i8], [20 x i8]* %digits, i64 0, i64 %index
+                %count = sub i64 20, %index
+                call void @hj.put(i8* %first, i64 %count)
+                ret void
+                }
+                """, "@hj.putc", "@hj.put");
+        define("@hj.put.i32", """
+                define internal void @hj.put.i32(i32 %value) {
+                %wide = sext i32 %value to i64
+                call void @hj.put.i64(i64 %wide)
+                ret void
+                }
+                """, "@hj.put.i64");
+        // Liczby zmiennoprzecinkowe formatuje snprintf, ale od razu w buforze wyjścia i ze stałym formatem
+        define("@hj.put.double", """
+                define internal void @hj.put.double(double %value) {
+                entry:
+                %used = load i64, i64* @hj.out.length
+                %room = sub i64 {size}, %used
+                %fits = icmp uge i64 %room, {text}
+                br i1 %fits, label %format, label %flush
+                flush:
+                call void @hj.flush()
+                br label %format
+                format:
+                %at = phi i64 [ %used, %entry ], [ 0, %flush ]
+                %target = getelementptr inbounds [{size} x i8], [{size} x i8]* @hj.out, i64 0, i64 %at
+                %length = call i32 (i8*, i64, i8*, ...) @snprintf(i8* %target, i64 {text}, i8* getelementptr inbounds ([3 x i8], [3 x i8]* @hj.format.double, i64 0, i64 0), double %value)
+                %size = sext i32 %length to i64
+                %end = add i64 %at, %size
+                store i64 %end, i64* @hj.out.length
+                ret void
+                }
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)).replace("{text}", Integer.toString(DOUBLE_TEXT_SIZE)), "@hj.out", FLUSH, "@snprintf", "@hj.format.double");
+        define("@hj.put.float", """
+                define internal void @hj.put.float(float %value) {
+                %wide = fpext float %value to double
+                call void @hj.put.double(double %wide)
+                ret void
+                }
+                """, "@hj.put.double");
+        define("@hj.put.i1", """
+                define internal void @hj.put.i1(i1 %value) {
+                %text = select i1 %value, i8* getelementptr inbounds ([5 x i8], [5 x i8]* @truetext, i64 0, i64 0), i8* getelementptr inbounds ([6 x i8], [6 x i8]* @falsetext, i64 0, i64 0)
+                %length = select i1 %value, i64 4, i64 5
+                call void @hj.put(i8* %text, i64 %length)
+                ret void
+                }
+                """, "@hj.put");
+        define("@hj.put.str", """
+                define internal void @hj.put.str(i8* %text) {
+                %length = call i64 @strlen(i8* %text)
+                call void @hj.put(i8* %text, i64 %length)
+                ret void
+                }
+                """, "@strlen", "@hj.put");
+
+        // Indeks spoza tablicy: najpierw wypisujemy to, co program już wydrukował, potem komunikat na stderr
+        define(FAIL_BOUNDS, """
+                define internal void @hj.fail.bounds(i64 %index, i64 %length) cold noreturn nounwind {
+                call void @hj.flush()
+                call void @hj.put(i8* getelementptr inbounds ([13 x i8], [13 x i8]* @hj.bounds.text, i64 0, i64 0), i64 13)
+                call void @hj.put.i64(i64 %index)
+                call void @hj.put(i8* getelementptr inbounds ([26 x i8], [26 x i8]* @hj.bounds.length.text, i64 0, i64 0), i64 26)
+                call void @hj.put.i64(i64 %length)
+                call void @hj.putc(i8 10)
+                %message = load i64, i64* @hj.out.length
+                call void @hj.write.all(i32 2, i8* getelementptr inbounds ([{size} x i8], [{size} x i8]* @hj.out, i64 0, i64 0), i64 %message)
+                call void @abort()
+                unreachable
+                }
+                """.replace("{size}", Integer.toString(BUFFER_SIZE)), FLUSH, "@hj.put", "@hj.put.i64", "@hj.putc", "@hj.bounds.text",
+                "@hj.out", "@hj.write.all", "@abort");
+
+        for (final var suffix : SUFFIXES) {
+            defineForType(suffix, suffix.equals("str") ? "i8*" : suffix);
+        }
+    }
+
+    private PrintRuntime() {
+    }
+
+    private static void defineForType(String suffix, String type) {
+        define("@hj.print." + suffix, """
+                define internal void @hj.print.{suffix}({type} %value) {
+                call void @hj.put.{suffix}({type} %value)
+                call void @hj.putc(i8 10)
+                ret void
+                }
+                """.replace("{suffix}", suffix).replace("{type}", type), "@hj.put." + suffix, "@hj.putc");
+        // Tablica w jednym przebiegu: [a, b, c]
+        define("@hj.put.array." + suffix, """
+                define internal void @hj.put.array.{suffix}({type}* %data, i64 %length) {
+                entry:
+                call void @hj.putc(i8 91)
+                br label %check
+                check:
+                %index = phi i64 [ 0, %entry ], [ %next, %value ]
+                %more = icmp ult i64 %index, %length
+                br i1 %more, label %element, label %end
+                element:
+                %isFirst = icmp eq i64 %index, 0
+                br i1 %isFirst, label %value, label %separator
+                separator:
+                call void @hj.put(i8* getelementptr inbounds ([3 x i8], [3 x i8]* @hj.separator, i64 0, i64 0), i64 2)
+                br label %value
+                value:
+                %slot = getelementptr inbounds {type}, {type}* %data, i64 %index
+                %item = load {type}, {type}* %slot
+                call void @hj.put.{suffix}({type} %item)
+                %next = add i64 %index, 1
+                br label %check
+                end:
+                call void @hj.putc(i8 93)
+                ret void
+                }
+                """.replace("{suffix}", suffix).replace("{type}", type), "@hj.putc", "@hj.put", "@hj.separator", "@hj.put." + suffix);
+        define("@hj.print.array." + suffix, """
+                define internal void @hj.print.array.{suffix}({type}* %data, i64 %length) {
+                call void @hj.put.array.{suffix}({type}* %data, i64 %length)
+                call void @hj.putc(i8 10)
+                ret void
+                }
+                """.replace("{suffix}", suffix).replace("{type}", type), "@hj.put.array." + suffix, "@hj.putc");
+        // Macierz to ciągły blok wierszy po length elementów, każdy wiersz w osobnej linii
+        define("@hj.print.matrix." + suffix, """
+                define internal void @hj.print.matrix.{suffix}({type}* %data, i64 %count, i64 %length) {
+                entry:
+                br label %check
+                check:
+                %index = phi i64 [ 0, %entry ], [ %next, %row ]
+                %more = icmp ult i64 %index, %count
+                br i1 %more, label %row, label %end
+                row:
+                %offset = mul i64 %index, %length
+                %first = getelementptr inbounds {type}, {type}* %data, i64 %offset
+                call void @hj.put.array.{suffix}({type}* %first, i64 %length)
+                call void @hj.putc(i8 10)
+                %next = add i64 %index, 1
+                br label %check
+                end:
+                ret void
+                }
+                """.replace("{suffix}", suffix).replace("{type}", type), "@hj.put.array." + suffix, "@hj.putc");
+    }
+
+    private static void define(String name, String text, String... dependencies) {
+        DEFINITIONS.put(name, new Definition(text, dependencies));
+    }
+
+    // Funkcje wypisujące tylko czytają przekazaną pamięć
+    static boolean isPrint(String callee) {
+        return callee != null && callee.startsWith(PRINT);
+    }
+
+    // Definicje funkcji środowiska, do których odwołuje się program, w stałej kolejności
+    static String definitions(Set<String> references) {
+        final Set<String> needed = new HashSet<>();
+        final var worklist = new ArrayDeque<String>();
+
+        for (final var reference : references) {
+            if (DEFINITIONS.containsKey(reference)) {
+                worklist.push(reference);
+            }
+        }
+
+        while (!worklist.isEmpty()) {
+            final var name = worklist.pop();
+
+            if (needed.add(name)) {
+                worklist.addAll(List.of(DEFINITIONS.get(name).dependencies()));
+            }
+        }
+
+        final var text = new StringBuilder();
+
+        for (final var entry : DEFINITIONS.entrySet()) {
+            if (needed.contains(entry.getKey())) {
+                text.append(entry.getValue().text());
+            }
+        }
+
+        return text.toString();
+    }
+
+    private record Definition(String text, String[] dependencies) {
+    }
+
+}
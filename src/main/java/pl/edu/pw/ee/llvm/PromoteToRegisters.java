@@ -0,0 +1,393 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Odpowiednik mem2reg: skalarne zmienne, do których dostęp jest tylko przez load i store, zamieniamy na rejestry SSA
+// z węzłami phi w miejscach złączeń. W main dotyczy to także zmiennych globalnych, których nie używa żadna funkcja.
+class PromoteToRegisters implements IRPass {
+
+    private static final Set<String> SCALAR_TYPES = Set.of("i1", "i32", "i64", "float", "double", "i8*");
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final var variables = findPromotable(function, IRModule.MAIN.equals(function.name) ? module.functionGlobals(function) : null);
+
+        if (!variables.isEmpty()) {
+            new Promotion(function, variables).run();
+        }
+    }
+
+    private static Map<String, String> findPromotable(IRFunction function, Set<String> functionGlobals) {
+        final Map<String, String> candidates = new LinkedHashMap<>();
+        final Set<String> escaped = new HashSet<>();
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                switch (instruction.opcode) {
+                    case ALLOCA -> addCandidate(candidates, escaped, instruction.result, instruction.type);
+                    case LOAD -> addPointer(candidates, escaped, functionGlobals, instruction.operands[0], instruction.type);
+                    case STORE -> {
+                        escaped.add(instruction.operands[0]);
+                        addPointer(candidates, escaped, functionGlobals, instruction.operands[1], instruction.type);
+                    }
+                    default -> escaped.addAll(List.of(instruction.operands));
+                }
+            }
+        }
+
+        candidates.keySet().removeAll(escaped);
+        return candidates;
+    }
+
+    private static void addPointer(Map<String, String> candidates, Set<String> escaped, Set<String> functionGlobals,
+                                   String pointer, String type) {
+        if (functionGlobals != null && pointer.startsWith("@") && !functionGlobals.contains(pointer)) {
+            addCandidate(candidates, escaped, pointer, type);
+            return;
+        }
+
+        final var known = candidates.get(pointer);
+
+        if (known != null && !known.equals(type)) {
+            escaped.add(pointer);
+        }
+    }
+
+    private static void addCandidate(Map<String, String> candidates, Set<String> escaped, String pointer, String type) {
+        if (!SCALAR_TYPES.contains(type)) {
+            escaped.add(pointer);
+            return;
+        }
+
+        final var known = candidates.putIfAbsent(pointer, type);
+
+        if (known != null && !known.equals(type)) {
+            escaped.add(pointer);
+        }
+    }
+
+    static String zeroValue(String type) {
+        return switch (type) {
+            case "float", "double" -> "0.0";
+            case "i8*" -> "null";
+            default -> "0";
+        };
+    }
+
+    private static final class Phi {
+
+        final String variable;
+        final String result;
+        final List<String> values = new ArrayList<>();
+        final List<String> labels = new ArrayList<>();
+        boolean isRemoved;
+
+        Phi(String variable, String result) {
+            this.variable = variable;
+            this.result = result;
+        }
+
+    }
+
+    private record Frame(BasicBlock block, List<String> pushed) {
+    }
+
+    private static final class Promotion {
+
+        private final IRFunction function;
+        private final Map<String, String> variables;
+        private final DominatorTree tree;
+        private final Map<BasicBlock, List<Phi>> phis = new IdentityHashMap<>();
+        private final List<Phi> allPhis = new ArrayList<>();
+        private final Map<String, String> replacements = new HashMap<>();
+        private final Map<String, ArrayDeque<String>> stacks = new HashMap<>();
+        private int phiCounter = 1;
+
+        Promotion(IRFunction function, Map<String, String> variables) {
+            this.function = function;
+            this.variables = variables;
+            this.tree = new DominatorTree(function);
+        }
+
+        void run() {
+            insertPhis();
+            rename();
+            removeTrivialPhis();
+            materializePhis();
+            resolveOperands();
+        }
+
+        private void insertPhis() {
+            final var frontiers = tree.frontiers();
+            final Map<String, Set<BasicBlock>> definitions = new HashMap<>();
+
+            for (final var variable : variables.keySet()) {
+                // Stała kolejność, bo od niej zależą nazwy phi, a wynik kompilacji ma być powtarzalny
+                final Set<BasicBlock> blocks = new LinkedHashSet<>();
+                blocks.add(function.entry());
+                definitions.put(variable, blocks);
+            }
+
+            for (final var block : tree.order) {
+                for (final var instruction : block.instructions) {
+                    if (instruction.opcode == Opcode.STORE && variables.containsKey(instruction.operands[1])) {
+                        definitions.get(instruction.operands[1]).add(block);
+                    }
+                }
+            }
+
+            for (final var variable : variables.keySet()) {
+                final var worklist = new ArrayDeque<>(definitions.get(variable));
+                final Set<BasicBlock> queued = new HashSet<>(worklist);
+                final Set<BasicBlock> placed = new HashSet<>();
+
+                while (!worklist.isEmpty()) {
+                    final var block = worklist.pop();
+
+                    for (final var frontier : frontiers.get(block)) {
+                        if (!placed.add(frontier)) {
+                            continue;
+                        }
+
+                        final var phi = new Phi(variable, "%" + variable.substring(1) + "." + phiCounter++);
+                        phis.computeIfAbsent(frontier, key -> new ArrayList<>()).add(phi);
+                        allPhis.add(phi);
+
+                        if (queued.add(frontier)) {
+                            worklist.push(frontier);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Przemianowanie w kolejności drzewa dominatorów, bez rekurencji, z osobnym stosem wartości dla każdej zmiennej
+        private void rename() {
+            for (final var variable : variables.entrySet()) {
+                final var stack = new ArrayDeque<String>();
+                stack.push(zeroValue(variable.getValue()));
+                stacks.put(variable.getKey(), stack);
+            }
+
+            final var work = new ArrayDeque<Frame>();
+            work.push(new Frame(function.entry(), null));
+
+            while (!work.isEmpty()) {
+                final var frame = work.pop();
+
+                if (frame.pushed() != null) {
+                    for (final var variable : frame.pushed()) {
+                        stacks.get(variable).pop();
+                    }
+
+                    continue;
+                }
+
+                final List<String> pushed = new ArrayList<>();
+                renameBlock(frame.block(), pushed);
+                work.push(new Frame(frame.block(), pushed));
+
+                for (final var child : tree.children(frame.block())) {
+                    work.push(new Frame(child, null));
+                }
+            }
+
+            for (final var block : function.blocks) {
+                if (!tree.isReachable(block)) {
+                    renameUnreachableBlock(block);
+                }
+            }
+        }
+
+        private void renameBlock(BasicBlock block, List<String> pushed) {
+            for (final var phi : phis.getOrDefault(block, List.of())) {
+                stacks.get(phi.variable).push(phi.result);
+                pushed.add(phi.variable);
+            }
+
+            final List<Instruction> kept = new ArrayList<>(block.instructions.size());
+
+            for (final var instruction : block.instructions) {
+                if (instruction.opcode == Opcode.ALLOCA && variables.containsKey(instruction.result)) {
+                    continue;
+                }
+
+                if (instruction.opcode == Opcode.LOAD && variables.containsKey(instruction.operands[0])) {
+                    replacements.put(instruction.result, stacks.get(instruction.operands[0]).peek());
+                    continue;
+                }
+
+                if (instruction.opcode == Opcode.STORE && variables.containsKey(instruction.operands[1])) {
+                    stacks.get(instruction.operands[1]).push(instruction.operands[0]);
+                    pushed.add(instruction.operands[1]);
+                    continue;
+                }
+
+                kept.add(instruction);
+            }
+
+            block.instructions.clear();
+            block.instructions.addAll(kept);
+
+            for (final var successor : block.successors) {
+                for (final var phi : phis.getOrDefault(successor, List.of())) {
+                    phi.values.add(stacks.get(phi.variable).peek());
+                    phi.labels.add(block.branchTarget());
+                }
+            }
+        }
+
+        // Nieosiągalne bloki nie mają dominatorów, więc odczyty z nich dostają wartość zerową
+        private void renameUnreachableBlock(BasicBlock block) {
+            block.instructions.removeIf(instruction -> {
+                if (instruction.opcode == Opcode.ALLOCA && variables.containsKey(instruction.result)) {
+                    return true;
+                }
+
+                if (instruction.opcode == Opcode.LOAD && variables.containsKey(instruction.operands[0])) {
+                    replacements.put(instruction.result, zeroValue(variables.get(instruction.operands[0])));
+                    return true;
+                }
+
+                return instruction.opcode == Opcode.STORE && variables.containsKey(instruction.operands[1]);
+            });
+
+            for (final var successor : block.successors) {
+                for (final var phi : phis.getOrDefault(successor, List.of())) {
+                    phi.values.add(zeroValue(variables.get(phi.variable)));
+                    phi.labels.add(block.branchTarget());
+                }
+            }
+        }
+
+        // Phi, którego wszystkie wejścia (poza nim samym) są tą samą wartością, zastępujemy tą wartością
+        private void removeTrivialPhis() {
+            var isChanged = true;
+
+            while (isChanged) {
+                isChanged = false;
+
+                for (final var phi : allPhis) {
+                    if (phi.isRemoved) {
+                        continue;
+                    }
+
+                    String same = null;
+                    var isTrivial = true;
+
+                    for (final var value : phi.values) {
+                        final var resolved = resolve(value);
+
+                        if (resolved.equals(phi.result) || resolved.equals(same)) {
+                            continue;
+                        }
+
+                        if (same != null) {
+                            isTrivial = false;
+                            break;
+                        }
+
+                        same = resolved;
+                    }
+
+                    if (isTrivial) {
+                        replacements.put(phi.result, same == null ? zeroValue(variables.get(phi.variable)) : same);
+                        phi.isRemoved = true;
+                        isChanged = true;
+                    }
+                }
+            }
+        }
+
+        // Zostawiamy tylko phi, których wynik jest faktycznie używany
+        private void materializePhis() {
+            final Map<String, Phi> phisByResult = new HashMap<>();
+
+            for (final var phi : allPhis) {
+                if (!phi.isRemoved) {
+                    phisByResult.put(phi.result, phi);
+                }
+            }
+
+            final Set<Phi> live = new HashSet<>();
+            final var worklist = new ArrayDeque<Phi>();
+
+            for (final var block : function.blocks) {
+                for (final var instruction : block.instructions) {
+                    for (final var operand : instruction.operands) {
+                        final var phi = phisByResult.get(resolve(operand));
+
+                        if (phi != null && live.add(phi)) {
+                            worklist.push(phi);
+                        }
+                    }
+                }
+            }
+
+            while (!worklist.isEmpty()) {
+                for (final var value : worklist.pop().values) {
+                    final var phi = phisByResult.get(resolve(value));
+
+                    if (phi != null && live.add(phi)) {
+                        worklist.push(phi);
+                    }
+                }
+            }
+
+            for (final var entry : phis.entrySet()) {
+                final List<Instruction> instructions = new ArrayList<>();
+
+                for (final var phi : entry.getValue()) {
+                    if (live.contains(phi)) {
+                        instructions.add(toInstruction(phi));
+                    }
+                }
+
+                entry.getKey().instructions.addAll(0, instructions);
+            }
+        }
+
+        private Instruction toInstruction(Phi phi) {
+            final var operands = new String[phi.values.size()];
+
+            for (var i = 0; i < operands.length; i++) {
+                operands[i] = resolve(phi.values.get(i));
+            }
+
+            return Instruction.phi(phi.result, variables.get(phi.variable), operands, phi.labels.toArray(String[]::new));
+        }
+
+        private void resolveOperands() {
+            for (final var block : function.blocks) {
+                for (final var instruction : block.instructions) {
+                    for (var i = 0; i < instruction.operands.length; i++) {
+                        instruction.operands[i] = resolve(instruction.operands[i]);
+                    }
+                }
+            }
+        }
+
+        private String resolve(String name) {
+            var resolved = name;
+            var replacement = replacements.get(resolved);
+
+            while (replacement != null) {
+                resolved = replacement;
+                replacement = replacements.get(resolved);
+            }
+
+            return resolved;
+        }
+
+    }
+
+}
@@ -0,0 +1,19 @@
+package pl.edu.pw.ee.llvm;
+
+// Wynik instrukcji trzymany jako numer rejestru, tekst powstaje dopiero przy wypisywaniu
+class Register extends Value {
+
+    final int id;
+
+    // Pole name zostaje puste, bo nazwę zawsze podaje name()
+    Register(int id, Type type, int length) {
+        super(null, type, length, false);
+        this.id = id;
+    }
+
+    @Override
+    public String name() {
+        return Registers.name(id);
+    }
+
+}
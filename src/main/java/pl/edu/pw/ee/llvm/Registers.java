@@ -0,0 +1,53 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.Arrays;
+
+// Numery rejestrów i indeksów powtarzają się w każdej kompilacji, więc ich tekst tworzymy tylko raz na cały proces.
+// Pamięć podręczna żyje tyle co serwer kompilacji, więc trzymamy tylko małe numery, które występują w prawie każdej funkcji
+final class Registers {
+
+    private static final int MAX_CACHED = 1 << 14;
+    private static volatile String[] numbers = new String[1024];
+    private static volatile String[] names = new String[1024];
+
+    private Registers() {
+    }
+
+    static String number(int value) {
+        if (value < 0 || value >= MAX_CACHED) {
+            return String.valueOf(value);
+        }
+
+        final var cached = numbers.length > value ? numbers : (numbers = grow(numbers, value));
+        var number = cached[value];
+
+        if (number == null) {
+            number = String.valueOf(value);
+            cached[value] = number;
+        }
+
+        return number;
+    }
+
+    static String name(int register) {
+        if (register < 0 || register >= MAX_CACHED) {
+            return "%" + register;
+        }
+
+        final var cached = names.length > register ? names : (names = grow(names, register));
+        var name = cached[register];
+
+        if (name == null) {
+            name = "%" + register;
+            cached[register] = name;
+        }
+
+        return name;
+    }
+
+    // Wyścig przy powiększaniu najwyżej gubi kilka wpisów, które zostaną po prostu utworzone ponownie
+    private static String[] grow(String[] cached, int index) {
+        return Arrays.copyOf(cached, Math.min(MAX_CACHED, Integer.highestOneBit(index) << 1));
+    }
+
+}
@@ -0,0 +1,65 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+// Gałęzie, do których po zwinięciu stałego warunku nie prowadzi żaden skok, usuwamy razem z wejściami phi z nich prowadzącymi
+class RemoveUnreachableBlocks implements IRPass {
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final Set<BasicBlock> reachable = Collections.newSetFromMap(new IdentityHashMap<>());
+        final var worklist = new ArrayDeque<BasicBlock>();
+        reachable.add(function.entry());
+        worklist.push(function.entry());
+
+        while (!worklist.isEmpty()) {
+            for (final var successor : worklist.pop().successors) {
+                if (reachable.add(successor)) {
+                    worklist.push(successor);
+                }
+            }
+        }
+
+        if (reachable.size() == function.blocks.size()) {
+            return;
+        }
+
+        function.blocks.removeIf(block -> !reachable.contains(block));
+        final Set<String> labels = new HashSet<>();
+
+        for (final var block : function.blocks) {
+            labels.add(block.branchTarget());
+        }
+
+        for (final var block : function.blocks) {
+            block.instructions.replaceAll(instruction -> instruction.opcode == Opcode.PHI ? prunePhi(instruction, labels) : instruction);
+        }
+
+        function.computeEdges();
+    }
+
+    private static Instruction prunePhi(Instruction phi, Set<String> labels) {
+        final List<String> values = new ArrayList<>();
+        final List<String> targets = new ArrayList<>();
+
+        for (var i = 0; i < phi.targets.length; i++) {
+            if (labels.contains(phi.targets[i])) {
+                values.add(phi.operands[i]);
+                targets.add(phi.targets[i]);
+            }
+        }
+
+        if (targets.size() == phi.targets.length) {
+            return phi;
+        }
+
+        return Instruction.phi(phi.result, phi.type, values.toArray(String[]::new), targets.toArray(String[]::new));
+    }
+
+}
@@ -0,0 +1,53 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// LLVM wymaga kolejnych numerów nienazwanych wartości, a przebiegi usuwają instrukcje, więc numerujemy je od nowa
+class RenumberRegisters implements IRPass {
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final Map<String, String> names = new HashMap<>();
+        var next = 1;
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                if (isNumbered(instruction.result)) {
+                    names.put(instruction.result, Registers.name(next++));
+                }
+            }
+        }
+
+        for (final var block : function.blocks) {
+            for (final var instruction : block.instructions) {
+                if (isNumbered(instruction.result)) {
+                    instruction.result = names.get(instruction.result);
+                }
+
+                for (var i = 0; i < instruction.operands.length; i++) {
+                    final var renamed = names.get(instruction.operands[i]);
+
+                    if (renamed != null) {
+                        instruction.operands[i] = renamed;
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean isNumbered(String name) {
+        if (name == null || name.length() < 2 || name.charAt(0) != '%') {
+            return false;
+        }
+
+        for (var i = 1; i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+}
@@ -0,0 +1,334 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Alloca, do których dostęp jest tylko przez load, store, getelementptr i memcpy, dzielą pamięć, jeśli ich zakresy życia
+// się nie nakładają. Zakres życia to miejsca, przed którymi i za którymi (na jakiejś ścieżce) jest dostęp do obiektu.
+class ShareStackSlots implements IRPass {
+
+    private static final String LIFETIME_START = "@llvm.lifetime.start.p0i8";
+    private static final String LIFETIME_END = "@llvm.lifetime.end.p0i8";
+
+    @Override
+    public void run(IRFunction function, IRModule module) {
+        final var slots = findSlots(function);
+
+        if (slots.isEmpty()) {
+            return;
+        }
+
+        computeLiveRanges(function, slots);
+        final var colors = color(slots);
+        insertLifetimeMarkers(function, colors);
+        merge(function, colors);
+    }
+
+    private static List<Slot> findSlots(IRFunction function) {
+        final List<Slot> slots = new ArrayList<>();
+        final Map<String, Slot> pointers = new HashMap<>();
+        final Set<Slot> escaped = Collections.newSetFromMap(new IdentityHashMap<>());
+        final var blockCount = function.blocks.size();
+
+        for (var b = 0; b < blockCount; b++) {
+            final var instructions = function.blocks.get(b).instructions;
+
+            for (var i = 0; i < instructions.size(); i++) {
+                final var instruction = instructions.get(i);
+
+                if (instruction.opcode == Opcode.ALLOCA) {
+                    final var slot = new Slot(instruction, blockCount);
+                    pointers.put(instruction.result, slot);
+                    slots.add(slot);
+                    continue;
+                }
+
+                for (var k = 0; k < instruction.operands.length; k++) {
+                    final var slot = pointers.get(instruction.operands[k]);
+
+                    if (slot == null) {
+                        continue;
+                    }
+
+                    if (isDerivedPointer(instruction, k)) {
+                        pointers.put(instruction.result, slot);
+                        slot.access(b, i);
+                    } else if (isAccess(instruction, k)) {
+                        slot.access(b, i);
+                    } else {
+                        escaped.add(slot);
+                    }
+                }
+            }
+        }
+
+        slots.removeIf(escaped::contains);
+        return slots;
+    }
+
+    private static boolean isAccess(Instruction instruction, int operand) {
+        return switch (instruction.opcode) {
+            case LOAD -> operand == 0;
+            case STORE -> operand == 1;
+            case CALL -> LLVMGenerator.MEMCPY.equals(instruction.callee);
+            default -> false;
+        };
+    }
+
+    private static boolean isDerivedPointer(Instruction instruction, int operand) {
+        return operand == 0 && (instruction.opcode == Opcode.GETELEMENTPTR
+                || instruction.opcode == Opcode.CAST && instruction.template.startsWith("bitcast"));
+    }
+
+    // Dla wszystkich slotów naraz: czy dostęp był wcześniej (w przód po krawędziach) i czy będzie później (wstecz)
+    private static void computeLiveRanges(IRFunction function, List<Slot> slots) {
+        final var blocks = function.blocks;
+        final Map<BasicBlock, Integer> indices = new IdentityHashMap<>();
+        final var accessed = new BitSet[blocks.size()];
+        final var before = new BitSet[blocks.size()];
+        final var after = new BitSet[blocks.size()];
+
+        for (var b = 0; b < blocks.size(); b++) {
+            indices.put(blocks.get(b), b);
+            accessed[b] = new BitSet();
+            before[b] = new BitSet();
+            after[b] = new BitSet();
+
+            for (var s = 0; s < slots.size(); s++) {
+                if (slots.get(s).first[b] >= 0) {
+                    accessed[b].set(s);
+                }
+            }
+        }
+
+        var isChanged = true;
+
+        while (isChanged) {
+            isChanged = false;
+
+            for (var b = 0; b < blocks.size(); b++) {
+                final var in = new BitSet();
+                final var out = new BitSet();
+
+                for (final var predecessor : blocks.get(b).predecessors) {
+                    final int p = indices.get(predecessor);
+                    in.or(before[p]);
+                    in.or(accessed[p]);
+                }
+
+                for (final var successor : blocks.get(b).successors) {
+                    final int n = indices.get(successor);
+                    out.or(after[n]);
+                    out.or(accessed[n]);
+                }
+
+                if (!in.equals(before[b]) || !out.equals(after[b])) {
+                    before[b] = in;
+                    after[b] = out;
+                    isChanged = true;
+                }
+            }
+        }
+
+        for (var s = 0; s < slots.size(); s++) {
+            final var slot = slots.get(s);
+
+            for (var b = 0; b < blocks.size(); b++) {
+                final var isAccessed = slot.first[b] >= 0;
+                final var start = before[b].get(s) ? 0 : slot.first[b];
+                final var end = after[b].get(s) ? blocks.get(b).instructions.size() : slot.last[b];
+
+                if (start >= 0 && end >= 0 && (isAccessed || before[b].get(s) && after[b].get(s))) {
+                    slot.start[b] = start;
+                    slot.end[b] = end;
+                    slot.isBlockLocal &= slot.liveBlock < 0 && !before[b].get(s) && !after[b].get(s);
+                    slot.liveBlock = b;
+                }
+            }
+        }
+    }
+
+    // Zachłanne kolorowanie: slot trafia do pierwszej grupy tego samego typu, z której żadnym slotem się nie nakłada
+    private static List<List<Slot>> color(List<Slot> slots) {
+        final List<List<Slot>> colors = new ArrayList<>();
+
+        for (final var slot : slots) {
+            List<Slot> chosen = null;
+
+            for (final var color : colors) {
+                if (color.getFirst().type().equals(slot.type()) && color.stream().noneMatch(slot::overlaps)) {
+                    chosen = color;
+                    break;
+                }
+            }
+
+            if (chosen == null) {
+                chosen = new ArrayList<>();
+                colors.add(chosen);
+            }
+
+            chosen.add(slot);
+        }
+
+        return colors;
+    }
+
+    // Znaczniki dajemy tylko grupom, których każdy slot żyje w obrębie jednego bloku, bo dostęp poza
+    // lifetime.start/end jest w LLVM zachowaniem niezdefiniowanym
+    private static void insertLifetimeMarkers(IRFunction function, List<List<Slot>> colors) {
+        final Map<BasicBlock, List<Marker>> markers = new IdentityHashMap<>();
+
+        for (final var color : colors) {
+            final var size = sizeOf(color.getFirst().type());
+
+            if (size < 0 || !color.stream().allMatch(Slot::isLive) || !color.stream().allMatch(slot -> slot.isBlockLocal)) {
+                continue;
+            }
+
+            final var pointer = color.getFirst().name();
+
+            for (final var slot : color) {
+                final var block = function.blocks.get(slot.liveBlock);
+                final var list = markers.computeIfAbsent(block, key -> new ArrayList<>());
+                list.add(new Marker(slot.start[slot.liveBlock], lifetime(LIFETIME_START, size, pointer)));
+                list.add(new Marker(slot.end[slot.liveBlock] + 1, lifetime(LIFETIME_END, size, pointer)));
+            }
+        }
+
+        for (final var entry : markers.entrySet()) {
+            final var instructions = entry.getKey().instructions;
+            final var list = entry.getValue();
+            // Od końca, żeby wstawianie nie przesuwało jeszcze nieużytych pozycji. Przy tej samej pozycji start wstawiamy
+            // pierwszy, więc end poprzedniego slotu z tej samej grupy znajdzie się przed nim.
+            list.sort(Comparator.comparingInt(Marker::index).reversed().thenComparing(Marker::isEnd));
+
+            for (final var marker : list) {
+                instructions.add(marker.index(), marker.instruction());
+            }
+        }
+    }
+
+    private static Instruction lifetime(String intrinsic, long size, String pointer) {
+        return new Instruction(Opcode.CALL, null, "void", "call void " + intrinsic + "(i64 " + size + ", i8* $0)",
+                new String[]{pointer}, Instruction.NONE, intrinsic);
+    }
+
+    private static void merge(IRFunction function, List<List<Slot>> colors) {
+        final Map<String, String> replacements = new HashMap<>();
+        final Set<Instruction> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        for (final var color : colors) {
+            for (final var slot : color.subList(1, color.size())) {
+                replacements.put(slot.name(), color.getFirst().name());
+                removed.add(slot.allocation);
+            }
+        }
+
+        if (replacements.isEmpty()) {
+            return;
+        }
+
+        for (final var block : function.blocks) {
+            block.instructions.removeIf(removed::contains);
+
+            for (final var instruction : block.instructions) {
+                for (var i = 0; i < instruction.operands.length; i++) {
+                    instruction.operands[i] = replacements.getOrDefault(instruction.operands[i], instruction.operands[i]);
+                }
+            }
+        }
+    }
+
+    static long sizeOf(String type) {
+        if (type.endsWith("*")) {
+            return 8;
+        }
+
+        if (type.startsWith("[")) {
+            final var separator = type.indexOf(" x ");
+            final var elementSize = sizeOf(type.substring(separator + 3, type.length() - 1));
+            return elementSize < 0 ? -1 : Long.parseLong(type.substring(1, separator)) * elementSize;
+        }
+
+        return switch (type) {
+            case "i1", "i8" -> 1;
+            case "i32", "float" -> 4;
+            case "i64", "double" -> 8;
+            default -> -1;
+        };
+    }
+
+    private record Marker(int index, Instruction instruction) {
+
+        boolean isEnd() {
+            return LIFETIME_END.equals(instruction.callee);
+        }
+
+    }
+
+    private static final class Slot {
+
+        final Instruction allocation;
+        // Pierwszy i ostatni dostęp w każdym bloku oraz zakres życia w bloku, -1 gdy brak
+        final int[] first;
+        final int[] last;
+        final int[] start;
+        final int[] end;
+        int liveBlock = -1;
+        boolean isBlockLocal = true;
+
+        Slot(Instruction allocation, int blockCount) {
+            this.allocation = allocation;
+            this.first = filled(blockCount);
+            this.last = filled(blockCount);
+            this.start = filled(blockCount);
+            this.end = filled(blockCount);
+        }
+
+        private static int[] filled(int length) {
+            final var array = new int[length];
+            Arrays.fill(array, -1);
+            return array;
+        }
+
+        String name() {
+            return allocation.result;
+        }
+
+        String type() {
+            return allocation.type;
+        }
+
+        boolean isLive() {
+            return liveBlock >= 0;
+        }
+
+        void access(int block, int index) {
+            if (first[block] < 0) {
+                first[block] = index;
+            }
+
+            last[block] = index;
+        }
+
+        boolean overlaps(Slot other) {
+            for (var b = 0; b < start.length; b++) {
+                if (start[b] >= 0 && other.start[b] >= 0 && start[b] <= other.end[b] && other.start[b] <= end[b]) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package pl.edu.pw.ee.llvm;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+// Przy kompilacji całego programu wypisany tekst zamkniętych partii czeka w pliku tymczasowym, aż będzie wiadomo, które
+// funkcje są osiągalne. W pamięci zostają tylko nazwy i długości kawałków, więc nadal mieści się w niej największa funkcja
+final class SpilledBatches implements Closeable {
+
+    private final Path path;
+    private final LLVMSink sink;
+    private final List<Segment> segments = new ArrayList<>();
+
+    SpilledBatches() throws IOException {
+        path = Files.createTempFile("holyjava-", ".ll");
+        sink = LLVMSink.toFile(path);
+    }
+
+    // Nazwa funkcji albo null dla deklaracji globalnych partii
+    void add(String name, CharSequence text) throws IOException {
+        sink.write(text);
+        segments.add(new Segment(name, text.length()));
+    }
+
+    // Kawałki w kolejności zapisu; tekst przekazany akcji jest ważny tylko do jej zakończenia
+    void forEach(BiConsumer<String, StringBuilder> action) throws IOException {
+        sink.close();
+        final var buffer = new char[LLVMSink.BUFFER_SIZE];
+        final var text = new StringBuilder();
+
+        try (final var reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            for (final var segment : segments) {
+                text.setLength(0);
+                var remaining = segment.length();
+
+                while (remaining > 0) {
+                    final var read = reader.read(buffer, 0, Math.min(buffer.length, remaining));
+
+                    if (read < 0) {
+                        throw new EOFException(path.toString());
+                    }
+
+                    text.append(buffer, 0, read);
+                    remaining -= read;
+                }
+
+                action.accept(segment.name(), text);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            sink.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    private record Segment(String name, int length) {
+    }
+
+}
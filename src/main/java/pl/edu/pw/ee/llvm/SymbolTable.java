@@ -0,0 +1,66 @@
+package pl.edu.pw.ee.llvm;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+// Zasięgi leksykalne: zmienne globalne programu i stos zasięgów otwieranych przez definicje funkcji
+class SymbolTable {
+
+    private final Map<String, Value> globals = new HashMap<>();
+    private final Deque<Map<String, Value>> scopes = new ArrayDeque<>();
+
+    void enterScope() {
+        scopes.push(new HashMap<>());
+    }
+
+    void exitScope() {
+        scopes.pop();
+    }
+
+    boolean isGlobalScope() {
+        return scopes.isEmpty();
+    }
+
+    void define(String id, Value value) {
+        if (scopes.isEmpty()) {
+            globals.put(id, value);
+            return;
+        }
+
+        scopes.peek().put(id, value);
+    }
+
+    Value resolve(String id) {
+        for (final var scope : scopes) {
+            final var value = scope.get(id);
+
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return globals.get(id);
+    }
+
+    boolean isDefined(String id) {
+        return resolve(id) != null;
+    }
+
+    // Zmienna jest globalna, jeśli nie przesłania jej żaden otwarty zasięg
+    boolean isGlobal(String id) {
+        for (final var scope : scopes) {
+            if (scope.containsKey(id)) {
+                return false;
+            }
+        }
+
+        return globals.containsKey(id);
+    }
+
+    Value global(String id) {
+        return globals.get(id);
+    }
+
+}
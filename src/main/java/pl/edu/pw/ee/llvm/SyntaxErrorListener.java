@@ -0,0 +1,21 @@
+package pl.edu.pw.ee.llvm;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+// Błąd składni przerywa kompilację jak błąd semantyczny, zamiast tylko trafić na stderr i zostawić niepełny IR
+final class SyntaxErrorListener extends BaseErrorListener {
+
+    static final SyntaxErrorListener INSTANCE = new SyntaxErrorListener();
+
+    private SyntaxErrorListener() {
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+                            String message, RecognitionException exception) {
+        throw new IllegalStateException("Error, line " + line + ":" + charPositionInLine + ", " + message);
+    }
+
+}
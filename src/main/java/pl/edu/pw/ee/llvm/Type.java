@@ -6,7 +6,8 @@ public interface Type {
 
     String llvmComparator();
 
-    String llvmPrintPattern();
+    // Przyrostek funkcji środowiska wypisującej wartości tego typu
+    String printSuffix();
 
     String llvmZeroValue();
 